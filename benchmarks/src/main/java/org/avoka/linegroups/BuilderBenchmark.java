@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Churn of adding and removing lines through {@link LineGroup.Builder}.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuilderBenchmark {
+
+    @Param({"100", "10000"})
+    public int lines;
+
+    private LineDictionary dictionary;
+    private String[] ops;
+    private LineGroup group;
+
+    @Setup
+    public void setup() {
+        dictionary = new LineDictionary();
+        ops = new String[lines];
+        final LineGroup.Builder builder = LineGroup.builder("group", dictionary);
+        for (int i = 0; i < lines; ++i) {
+            ops[i] = SyntheticGroups.op(i);
+            builder.addLine(ops[i]);
+        }
+        group = builder.build();
+    }
+
+    @Benchmark
+    public LineGroup addLines() {
+        final LineGroup.Builder builder = LineGroup.builder("group", dictionary);
+        for (String op : ops) {
+            builder.addLine(op);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public LineGroup removeAndAddLines() {
+        final LineGroup.Builder builder = LineGroup.builder(group);
+        for (int i = 0; i < ops.length; i += 2) {
+            builder.removeLine(ops[i]);
+        }
+        for (int i = 0; i < ops.length; i += 4) {
+            builder.addLine(ops[i]);
+        }
+        return builder.build();
+    }
+}
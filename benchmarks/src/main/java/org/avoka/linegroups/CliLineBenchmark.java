@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Rendering of JSON ops into CLI lines by {@link Main#toCliLine(ModelNode)} and {@link CliRenderer}.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CliLineBenchmark {
+
+    @Param({"1000"})
+    public int lines;
+
+    @Param({""})
+    public String fixtureDir;
+
+    private LineDictionary dictionary;
+    private String[] ops;
+    private CliRenderer cached;
+
+    @Setup
+    public void setup() throws IOException {
+        dictionary = new LineDictionary();
+        if (fixtureDir.isEmpty()) {
+            for (int i = 0; i < lines; ++i) {
+                dictionary.intern(SyntheticGroups.op(i));
+            }
+        } else {
+            SyntheticGroups.replay(dictionary, fixtureDir);
+        }
+        ops = new String[dictionary.size()];
+        for (int i = 0; i < ops.length; ++i) {
+            ops[i] = dictionary.getLine(i);
+        }
+        cached = new CliRenderer(dictionary);
+    }
+
+    @Benchmark
+    public void toCliLine(Blackhole blackhole) {
+        for (String op : ops) {
+            blackhole.consume(Main.toCliLine(ModelNode.fromJSONString(op)));
+        }
+    }
+
+    @Benchmark
+    public void render(Blackhole blackhole) {
+        final CliRenderer renderer = new CliRenderer(dictionary);
+        for (String op : ops) {
+            blackhole.consume(renderer.render(op));
+        }
+    }
+
+    @Benchmark
+    public void renderCached(Blackhole blackhole) {
+        for (int i = 0; i < ops.length; ++i) {
+            blackhole.consume(cached.render(i));
+        }
+    }
+}
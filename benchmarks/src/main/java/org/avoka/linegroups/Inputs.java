@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark input, either synthetic groups generated from the parameters
+ * or, when the fixture directory is set, the op logs found in it.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Benchmark)
+public class Inputs {
+
+    @Param({"8", "32"})
+    public int groups;
+
+    @Param({"1000", "10000"})
+    public int linesPerGroup;
+
+    @Param({"UNIFORM", "SKEWED"})
+    public SyntheticGroups.Overlap overlap;
+
+    @Param({"0.5"})
+    public double shared;
+
+    @Param({"1", "3"})
+    public int depth;
+
+    @Param({""})
+    public String fixtureDir;
+
+    LineDictionary dictionary;
+    LineGroup[] input;
+
+    @Setup
+    public void setup() throws IOException {
+        dictionary = new LineDictionary();
+        if (fixtureDir.isEmpty()) {
+            input = SyntheticGroups.generate(dictionary, groups, linesPerGroup, overlap, shared, depth, 42);
+        } else {
+            input = SyntheticGroups.replay(dictionary, fixtureDir);
+        }
+    }
+}
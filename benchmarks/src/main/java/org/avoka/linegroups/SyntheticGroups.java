@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Generates line groups resembling logged configs or replays real op logs.
+ *
+ * Synthetic groups are spread over nesting levels, a group at a deeper level
+ * includes all the lines of a random group from the previous level, like
+ * standalone-ha.xml includes standalone.xml. On top of that each group
+ * gets its own lines, a share of which is drawn from a pool shared by all the groups.
+ *
+ * @author Alexey Loubyansky
+ */
+public class SyntheticGroups {
+
+    public enum Overlap {
+        /** shared lines are picked from the pool uniformly */
+        UNIFORM,
+        /** a few shared lines are picked by most of the groups */
+        SKEWED
+    }
+
+    public static LineGroup[] generate(LineDictionary dictionary, int groups, int linesPerGroup, Overlap overlap,
+            double shared, int depth, long seed) {
+        final Random random = new Random(seed);
+        final int pool = Math.max(1, linesPerGroup * groups / 4);
+        int nextUnique = pool;
+        final List<List<LineGroup>> levels = new ArrayList<>(depth);
+        for (int i = 0; i < depth; ++i) {
+            levels.add(new ArrayList<>());
+        }
+        final LineGroup[] result = new LineGroup[groups];
+        for (int g = 0; g < groups; ++g) {
+            final int level = g % depth;
+            final LineGroup.Builder builder = LineGroup.builder("group" + g, dictionary);
+            if (level > 0) {
+                final List<LineGroup> parents = levels.get(level - 1);
+                for (int line : parents.get(random.nextInt(parents.size())).lineIds()) {
+                    builder.addLine(line);
+                }
+            }
+            for (int i = 0; i < linesPerGroup; ++i) {
+                final int op;
+                if (random.nextDouble() < shared) {
+                    final double r = random.nextDouble();
+                    op = (int) (pool * (overlap == Overlap.SKEWED ? r * r * r : r));
+                } else {
+                    op = nextUnique++;
+                }
+                builder.addLine(op(op));
+            }
+            result[g] = builder.build();
+            levels.get(level).add(result[g]);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the op logs found in the directory, the groups are named after the files.
+     */
+    public static LineGroup[] replay(LineDictionary dictionary, String dir) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> list = Files.list(Paths.get(dir))) {
+            files = list.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        return OpLogReader.readAll(dictionary, files.toArray(new Path[files.size()]));
+    }
+
+    /**
+     * JSON form of a synthetic write-attribute operation with the given number.
+     */
+    public static String op(int i) {
+        final ModelNode op = new ModelNode();
+        op.get("operation").set("write-attribute");
+        final ModelNode address = op.get("address");
+        address.add("subsystem", "subsystem" + (i % 37));
+        address.add("resource", "resource" + i);
+        op.get("name").set("attribute" + (i % 5));
+        op.get("value").set(i % 3 == 0 ? "${prop" + i + "}" : "value" + i);
+        return op.toJSONString(true);
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index of the ops of arranged groups by their address.
+ *
+ * The ops are stored in a trie over the address elements, a level per element keyed by
+ * its name and value. The ids of the ops are kept in one array in the preorder of their trie
+ * nodes, so the ops at or under an address are a range of it, and the groups owning the ops
+ * are kept in another array following the op positions. A query walks down the address and
+ * collects the owners of the range, the groups including them, e.g. the original inputs, are
+ * found walking up the nesting. The memory is linear in the number of the ops and their
+ * owners rather than in the number of addresses times the number of groups.
+ * Lines that are not JSON ops are not indexed.
+ *
+ * @author Alexey Loubyansky
+ */
+public class AddressIndex {
+
+    private static class Node {
+        /** children by the name and then the value of their last address element */
+        final Map<String, Map<String, Node>> children = new HashMap<>();
+        /** number of the ops at exactly this address */
+        int own;
+        /** position of the first op at this address */
+        int first;
+        /** end of the positions of the ops at or under this address */
+        int end;
+        /** next position of an op at this address while the index is built */
+        int fill;
+
+        Node child(String name, String value) {
+            Map<String, Node> values = children.get(name);
+            if (values == null) {
+                values = new HashMap<>();
+                children.put(name, values);
+            }
+            Node child = values.get(value);
+            if (child == null) {
+                child = new Node();
+                values.put(value, child);
+            }
+            return child;
+        }
+
+        Node getChild(String name, String value) {
+            final Map<String, Node> values = children.get(name);
+            return values == null ? null : values.get(value);
+        }
+    }
+
+    private final LineDictionary dictionary;
+    private final String[] names;
+    private final Node root = new Node();
+    /** op ids in the preorder of their nodes, ascending within a node */
+    private final int[] lines;
+    /** start of the owners of the op at each position in {@link #owners}, followed by the end */
+    private final int[] ownerStart;
+    /** indexes of the groups owning the ops */
+    private final int[] owners;
+    /** start of the groups directly including each group in {@link #parents}, followed by the end */
+    private final int[] parentStart;
+    private final int[] parents;
+
+    public AddressIndex(Map<String, LineGroup> groups) {
+        names = groups.keySet().toArray(new String[groups.size()]);
+        final Map<String, Integer> indexes = new HashMap<>(names.length);
+        for (int i = 0; i < names.length; ++i) {
+            indexes.put(names[i], i);
+        }
+        LineDictionary dictionary = null;
+        int maxLine = -1;
+        int nestingTotal = 0;
+        for (LineGroup group : groups.values()) {
+            if (group.size() > 0) {
+                if (dictionary == null) {
+                    dictionary = group.getDictionary();
+                } else if (group.getDictionary() != dictionary) {
+                    throw new IllegalStateException("Group " + group.getName() + " uses a different line dictionary");
+                }
+                final int[] lineIds = group.lineIds();
+                maxLine = Math.max(maxLine, lineIds[lineIds.length - 1]);
+            }
+            nestingTotal += group.getNestedGroupNames().size();
+        }
+        this.dictionary = dictionary;
+
+        // place the ops in the trie and count their owners
+        final Node[] lineNodes = new Node[maxLine + 1];
+        final BitSet parsed = new BitSet(maxLine + 1);
+        final int[] ownerCounts = new int[maxLine + 1];
+        final int[] parentCounts = new int[names.length + 1];
+        for (int i = 0; i < names.length; ++i) {
+            final LineGroup group = groups.get(names[i]);
+            for (int line : group.lineIds()) {
+                if (!parsed.get(line)) {
+                    parsed.set(line);
+                    final String[] address = CanonicalOp.address(dictionary.getLine(line));
+                    if (address != null) {
+                        Node node = root;
+                        for (int e = 0; e < address.length; e += 2) {
+                            node = node.child(address[e], address[e + 1]);
+                        }
+                        lineNodes[line] = node;
+                        ++node.own;
+                    }
+                }
+                ++ownerCounts[line];
+            }
+            for (String nested : group.getNestedGroupNames()) {
+                final Integer nestedIndex = indexes.get(nested);
+                if (nestedIndex == null) {
+                    throw new IllegalStateException("Group " + names[i] + " includes unknown group " + nested);
+                }
+                ++parentCounts[nestedIndex + 1];
+            }
+        }
+
+        final int opCount = place(root, 0);
+        lines = new int[opCount];
+        final int[] linePositions = new int[maxLine + 1];
+        for (int line = 0; line <= maxLine; ++line) {
+            final Node node = lineNodes[line];
+            if (node != null) {
+                linePositions[line] = node.fill;
+                lines[node.fill++] = line;
+            }
+        }
+
+        ownerStart = new int[opCount + 1];
+        for (int pos = 0; pos < opCount; ++pos) {
+            ownerStart[pos + 1] = ownerStart[pos] + ownerCounts[lines[pos]];
+        }
+        owners = new int[ownerStart[opCount]];
+        final int[] ownerFill = Arrays.copyOf(ownerStart, opCount);
+        for (int i = 1; i < parentCounts.length; ++i) {
+            parentCounts[i] += parentCounts[i - 1];
+        }
+        parentStart = parentCounts;
+        parents = new int[nestingTotal];
+        final int[] parentFill = Arrays.copyOf(parentStart, names.length);
+        for (int i = 0; i < names.length; ++i) {
+            final LineGroup group = groups.get(names[i]);
+            for (int line : group.lineIds()) {
+                if (lineNodes[line] != null) {
+                    owners[ownerFill[linePositions[line]]++] = i;
+                }
+            }
+            for (String nested : group.getNestedGroupNames()) {
+                parents[parentFill[indexes.get(nested)]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Parses an address path like /subsystem=undertow/server=default-server into the names and values
+     * of its elements alternating. A '/', '=' or '\' in a name or value is escaped with a '\'.
+     */
+    public static String[] parseAddress(String path) {
+        final List<String> elements = new ArrayList<>();
+        final StringBuilder buf = new StringBuilder();
+        String name = null;
+        for (int i = 0; i <= path.length(); ++i) {
+            final char c = i == path.length() ? '/' : path.charAt(i);
+            if (c == '\\') {
+                if (++i == path.length()) {
+                    throw new IllegalStateException("Address " + path + " ends with an escape");
+                }
+                buf.append(path.charAt(i));
+            } else if (c == '=' && name == null) {
+                name = buf.toString();
+                buf.setLength(0);
+            } else if (c == '/') {
+                if (name != null) {
+                    elements.add(name);
+                    elements.add(buf.toString());
+                    name = null;
+                } else if (buf.length() > 0) {
+                    throw new IllegalStateException("Address element " + buf + " of " + path + " is not name=value");
+                }
+                buf.setLength(0);
+            } else {
+                buf.append(c);
+            }
+        }
+        return elements.toArray(new String[elements.size()]);
+    }
+
+    /**
+     * @param address  names and values of the address elements alternating, e.g. "subsystem", "undertow"
+     * @return  names of the groups owning ops at or under the address
+     */
+    public Set<String> getGroups(String... address) {
+        final Node node = find(address);
+        return node == null ? Collections.emptySet() : toNames(owners(node.first, node.end));
+    }
+
+    /**
+     * @param address  names and values of the address elements alternating
+     * @return  names of the groups owning or including ops at or under the address
+     */
+    public Set<String> getIncludingGroups(String... address) {
+        final Node node = find(address);
+        return node == null ? Collections.emptySet() : toNames(including(owners(node.first, node.end)));
+    }
+
+    /**
+     * @param address  names and values of the address elements alternating
+     * @return  sorted ids of the ops at or under the address
+     */
+    public int[] getLineIds(String... address) {
+        final Node node = find(address);
+        if (node == null) {
+            return new int[0];
+        }
+        final int[] ids = Arrays.copyOfRange(lines, node.first, node.end);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * @return  names of the groups owning the op
+     */
+    public Set<String> getGroupsOfOp(String op) {
+        final BitSet owners = ownersOfOp(op);
+        return owners == null ? Collections.emptySet() : toNames(owners);
+    }
+
+    /**
+     * @return  names of the groups owning or including the op
+     */
+    public Set<String> getIncludingGroupsOfOp(String op) {
+        final BitSet owners = ownersOfOp(op);
+        return owners == null ? Collections.emptySet() : toNames(including(owners));
+    }
+
+    private BitSet ownersOfOp(String op) {
+        final int id = dictionary == null ? -1 : dictionary.getId(op);
+        if (id < 0) {
+            return null;
+        }
+        final String[] address = CanonicalOp.address(dictionary.getLine(id));
+        final Node node = address == null ? null : find(address);
+        if (node == null) {
+            return null;
+        }
+        final int pos = Arrays.binarySearch(lines, node.first, node.first + node.own, id);
+        return pos < 0 ? null : owners(pos, pos + 1);
+    }
+
+    private Node find(String[] address) {
+        if ((address.length & 1) != 0) {
+            throw new IllegalStateException("Address " + Arrays.toString(address) + " is not a list of names and values");
+        }
+        Node node = root;
+        for (int e = 0; e < address.length && node != null; e += 2) {
+            node = node.getChild(address[e], address[e + 1]);
+        }
+        return node;
+    }
+
+    /**
+     * @return  indexes of the groups owning the ops at the positions
+     */
+    private BitSet owners(int from, int to) {
+        final BitSet groups = new BitSet(names.length);
+        for (int i = ownerStart[from]; i < ownerStart[to]; ++i) {
+            groups.set(owners[i]);
+        }
+        return groups;
+    }
+
+    /**
+     * @return  the groups along with all the groups including them transitively
+     */
+    private BitSet including(BitSet groups) {
+        final BitSet including = (BitSet) groups.clone();
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (int i = groups.nextSetBit(0); i >= 0; i = groups.nextSetBit(i + 1)) {
+            queue.add(i);
+        }
+        while (!queue.isEmpty()) {
+            final int group = queue.poll();
+            for (int p = parentStart[group]; p < parentStart[group + 1]; ++p) {
+                if (!including.get(parents[p])) {
+                    including.set(parents[p]);
+                    queue.add(parents[p]);
+                }
+            }
+        }
+        return including;
+    }
+
+    private Set<String> toNames(BitSet indexes) {
+        final Set<String> result = new LinkedHashSet<>(indexes.cardinality());
+        for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+            result.add(names[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Assigns the positions of the ops of the subtree starting at the given one in preorder.
+     *
+     * @return  the end of the positions of the subtree
+     */
+    private static int place(Node node, int first) {
+        node.first = first;
+        node.fill = first;
+        int end = first + node.own;
+        for (Map<String, Node> values : node.children.values()) {
+            for (Node child : values.values()) {
+                end = place(child, end);
+            }
+        }
+        node.end = end;
+        return end;
+    }
+}
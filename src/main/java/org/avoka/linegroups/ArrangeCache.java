@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Directory of {@link ArrangedFile}s keyed by the names and content hashes of the input op logs,
+ * so that arranging unchanged inputs again skips both the ingestion and the arrangement.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ArrangeCache {
+
+    private final Path dir;
+    private final ArrangeOptions options;
+
+    public ArrangeCache(Path dir) {
+        this(dir, ArrangeOptions.builder().build());
+    }
+
+    public ArrangeCache(Path dir, ArrangeListener listener) {
+        this(dir, ArrangeOptions.builder().listener(listener).build());
+    }
+
+    public ArrangeCache(Path dir, ArrangeOptions options) {
+        this.dir = dir;
+        this.options = options;
+    }
+
+    /**
+     * Returns the arranged groups of the op logs from the cache or reads, arranges and caches them.
+     */
+    public Map<String, LineGroup> arrange(LineDictionary dictionary, Path... files) throws IOException {
+        final Path cached = dir.resolve(key(dictionary.isCanonical(), options, files) + ".lgr");
+        if (Files.exists(cached)) {
+            options.getListener().phaseStarted(ArrangePhase.CACHE);
+            final long start = System.nanoTime();
+            final Map<String, LineGroup> groups = ArrangedFile.open(cached, dictionary).toMap();
+            options.getListener().phaseCompleted(ArrangePhase.CACHE, System.nanoTime() - start);
+            return groups;
+        }
+        final Map<String, LineGroup> groups = Util.arrange(options,
+                OpLogReader.readAll(dictionary, options.getListener(), files));
+        Files.createDirectories(dir);
+        final Path tmp = Files.createTempFile(dir, "arranged", ".tmp");
+        try {
+            ArrangedFile.write(tmp, groups);
+            Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return groups;
+    }
+
+    public static String key(boolean canonical, Path... files) throws IOException {
+        return key(canonical, ArrangeOptions.builder().build(), files);
+    }
+
+    /**
+     * Hex SHA-256 of the format and arrangement versions, the options affecting the result,
+     * whether lines are identified by their canonical op form and the names and contents of the files
+     * in the order of the arguments.
+     */
+    public static String key(boolean canonical, ArrangeOptions options, Path... files) throws IOException {
+        final MessageDigest digest = sha256();
+        digest.update(Integer.toString(ArrangedFile.VERSION).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(Integer.toString(Util.VERSION).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update((options.getMinGroupSize() + ":" + options.getMaxExtractions())
+                .getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) (canonical ? 1 : 0));
+        for (Path file : files) {
+            digest.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            final MessageDigest content = sha256();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final long size = channel.size();
+                for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                    final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(Integer.MAX_VALUE, size - position));
+                    content.update(buf);
+                }
+            }
+            digest.update(content.digest());
+        }
+        final StringBuilder buf = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
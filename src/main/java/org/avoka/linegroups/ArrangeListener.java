@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+/**
+ * Receives the timings and counters of reading and arranging line groups.
+ *
+ * In the parallel mode some of the methods are called from the workers of the pool,
+ * so the implementations have to be thread-safe.
+ *
+ * @author Alexey Loubyansky
+ */
+public interface ArrangeListener {
+
+    ArrangeListener NONE = new ArrangeListener() {};
+
+    /**
+     * Returns a {@link JfrArrangeListener} if the JVM provides the jdk.jfr module or {@link #NONE} otherwise.
+     *
+     * The listener is loaded by name, so that the classes referencing this method link on a JVM without JFR.
+     */
+    static ArrangeListener jfr() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (ArrangeListener) Class.forName("org.avoka.linegroups.JfrArrangeListener")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return NONE;
+        }
+    }
+
+    /**
+     * Notifies all the listeners in the order of the arguments.
+     */
+    static ArrangeListener of(ArrangeListener... listeners) {
+        return new ArrangeListener() {
+            @Override
+            public void inputRead(LineGroup group, long bytes, int lines, long nanos) {
+                for (ArrangeListener listener : listeners) {
+                    listener.inputRead(group, bytes, lines, nanos);
+                }
+            }
+
+            @Override
+            public void phaseStarted(ArrangePhase phase) {
+                for (ArrangeListener listener : listeners) {
+                    listener.phaseStarted(phase);
+                }
+            }
+
+            @Override
+            public void phaseCompleted(ArrangePhase phase, long nanos) {
+                for (ArrangeListener listener : listeners) {
+                    listener.phaseCompleted(phase, nanos);
+                }
+            }
+
+            @Override
+            public void containmentNested(String group, int nestedGroups, int removedLines) {
+                for (ArrangeListener listener : listeners) {
+                    listener.containmentNested(group, nestedGroups, removedLines);
+                }
+            }
+
+            @Override
+            public void levelStarted(int cardinality) {
+                for (ArrangeListener listener : listeners) {
+                    listener.levelStarted(cardinality);
+                }
+            }
+
+            @Override
+            public void levelBuilt(int cardinality, int groups, int lines, long nanos) {
+                for (ArrangeListener listener : listeners) {
+                    listener.levelBuilt(cardinality, groups, lines, nanos);
+                }
+            }
+
+            @Override
+            public void arranged(int inputs, int indexedLines, int registeredLines, int signatures, int groups) {
+                for (ArrangeListener listener : listeners) {
+                    listener.arranged(inputs, indexedLines, registeredLines, signatures, groups);
+                }
+            }
+        };
+    }
+
+    /**
+     * An op log was read into the group.
+     *
+     * @param bytes  size of the file
+     * @param lines  number of lines read including the duplicates
+     */
+    default void inputRead(LineGroup group, long bytes, int lines, long nanos) {
+    }
+
+    /**
+     * Called on the thread that later reports the completion of the phase.
+     */
+    default void phaseStarted(ArrangePhase phase) {
+    }
+
+    default void phaseCompleted(ArrangePhase phase, long nanos) {
+    }
+
+    /**
+     * An original group was copied to nest the original groups it fully includes.
+     *
+     * @param removedLines  number of lines moved to the nested groups
+     */
+    default void containmentNested(String group, int nestedGroups, int removedLines) {
+    }
+
+    /**
+     * The groups of the signatures with the given number of original groups are about to be built.
+     */
+    default void levelStarted(int cardinality) {
+    }
+
+    /**
+     * The groups of the signatures with the given number of original groups were built.
+     *
+     * @param lines  total number of lines in the built groups
+     */
+    default void levelBuilt(int cardinality, int groups, int lines, long nanos) {
+    }
+
+    /**
+     * @param indexedLines  number of line ids the signatures are indexed by
+     * @param registeredLines  number of line memberships registered in the signatures
+     * @param signatures  number of distinct signatures including the closures without lines
+     * @param groups  number of the arranged groups
+     */
+    default void arranged(int inputs, int indexedLines, int registeredLines, int signatures, int groups) {
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener accumulating the timings and counters of one or more runs to be reported at the end.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ArrangeMetrics implements ArrangeListener {
+
+    private static class Input {
+        final String name;
+        final long bytes;
+        final int lines;
+        final int distinctLines;
+        final long nanos;
+
+        Input(String name, long bytes, int lines, int distinctLines, long nanos) {
+            this.name = name;
+            this.bytes = bytes;
+            this.lines = lines;
+            this.distinctLines = distinctLines;
+            this.nanos = nanos;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Input> inputs = new ConcurrentLinkedQueue<>();
+    private final Map<ArrangePhase, AtomicLong> phaseNanos = new EnumMap<>(ArrangePhase.class);
+    private final LongAdder copiedBuilders = new LongAdder();
+    private final LongAdder nestedOriginals = new LongAdder();
+    private final LongAdder removedLines = new LongAdder();
+    private final LongAdder levels = new LongAdder();
+    private final LongAdder builtGroups = new LongAdder();
+    private final LongAdder builtLines = new LongAdder();
+    private final LongAdder runs = new LongAdder();
+    private final AtomicLong indexedLines = new AtomicLong();
+    private final AtomicLong registeredLines = new AtomicLong();
+    private final AtomicLong signatures = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+
+    public ArrangeMetrics() {
+        for (ArrangePhase phase : ArrangePhase.values()) {
+            phaseNanos.put(phase, new AtomicLong());
+        }
+    }
+
+    @Override
+    public void inputRead(LineGroup group, long bytes, int lines, long nanos) {
+        inputs.add(new Input(group.getName(), bytes, lines, group.size(), nanos));
+    }
+
+    @Override
+    public void phaseCompleted(ArrangePhase phase, long nanos) {
+        phaseNanos.get(phase).addAndGet(nanos);
+    }
+
+    @Override
+    public void containmentNested(String group, int nestedGroups, int removedLines) {
+        copiedBuilders.increment();
+        nestedOriginals.add(nestedGroups);
+        this.removedLines.add(removedLines);
+    }
+
+    @Override
+    public void levelBuilt(int cardinality, int groups, int lines, long nanos) {
+        levels.increment();
+        builtGroups.add(groups);
+        builtLines.add(lines);
+    }
+
+    @Override
+    public void arranged(int inputs, int indexedLines, int registeredLines, int signatures, int groups) {
+        runs.increment();
+        this.indexedLines.addAndGet(indexedLines);
+        this.registeredLines.addAndGet(registeredLines);
+        this.signatures.addAndGet(signatures);
+        this.groups.addAndGet(groups);
+    }
+
+    public long getPhaseNanos(ArrangePhase phase) {
+        return phaseNanos.get(phase).get();
+    }
+
+    public long getCopiedBuilders() {
+        return copiedBuilders.sum();
+    }
+
+    public long getBuiltGroups() {
+        return builtGroups.sum();
+    }
+
+    public long getSignatures() {
+        return signatures.get();
+    }
+
+    public void report(PrintStream out) {
+        for (Input input : inputs) {
+            out.println(String.format("read %s: %d bytes, %d lines, %d distinct in %d ms", input.name, input.bytes,
+                    input.lines, input.distinctLines, TimeUnit.NANOSECONDS.toMillis(input.nanos)));
+        }
+        for (Map.Entry<ArrangePhase, AtomicLong> entry : phaseNanos.entrySet()) {
+            if (entry.getValue().get() > 0) {
+                out.println(String.format("%s: %d ms", entry.getKey().name().toLowerCase(),
+                        TimeUnit.NANOSECONDS.toMillis(entry.getValue().get())));
+            }
+        }
+        out.println(String.format("runs: %d, containment copies: %d nesting %d groups and moving %d lines", runs.sum(),
+                copiedBuilders.sum(), nestedOriginals.sum(), removedLines.sum()));
+        out.println(String.format("signature index: %d line ids, %d memberships, %d signatures", indexedLines.get(),
+                registeredLines.get(), signatures.get()));
+        out.println(String.format("built %d groups with %d lines in %d levels, %d groups arranged", builtGroups.sum(),
+                builtLines.sum(), levels.sum(), groups.get()));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Options of {@link Util#arrange(ArrangeOptions, LineGroup...)}.
+ *
+ * By default every set of lines shared by the same groups becomes a group of its own.
+ * The limits make the arrangement extract only the shared sets saving the most,
+ * i.e. with the most lines times the number of groups sharing them beyond the first one,
+ * in the order of their savings. The lines of the sets that are not extracted stay
+ * in the groups sharing them.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ArrangeOptions {
+
+    public static class Builder {
+
+        private ForkJoinPool pool;
+        private ArrangeListener listener = ArrangeListener.NONE;
+        private int minGroupSize = 1;
+        private int maxExtractions = Integer.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        /**
+         * Pool whose workers arrange the groups in parallel, null to arrange them in the calling thread.
+         */
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public Builder listener(ArrangeListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Minimum number of lines in a new group of shared lines.
+         */
+        public Builder minGroupSize(int minGroupSize) {
+            this.minGroupSize = minGroupSize;
+            return this;
+        }
+
+        /**
+         * Maximum number of new groups of shared lines, not counting the closures of the original groups.
+         */
+        public Builder maxExtractions(int maxExtractions) {
+            this.maxExtractions = maxExtractions;
+            return this;
+        }
+
+        public ArrangeOptions build() {
+            return new ArrangeOptions(this);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final ForkJoinPool pool;
+    private final ArrangeListener listener;
+    private final int minGroupSize;
+    private final int maxExtractions;
+
+    private ArrangeOptions(Builder builder) {
+        this.pool = builder.pool;
+        this.listener = builder.listener;
+        this.minGroupSize = builder.minGroupSize;
+        this.maxExtractions = builder.maxExtractions;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public ArrangeListener getListener() {
+        return listener;
+    }
+
+    public int getMinGroupSize() {
+        return minGroupSize;
+    }
+
+    public int getMaxExtractions() {
+        return maxExtractions;
+    }
+
+    boolean isBudgeted() {
+        return minGroupSize > 1 || maxExtractions < Integer.MAX_VALUE;
+    }
+}
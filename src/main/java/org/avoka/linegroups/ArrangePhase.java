@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+/**
+ * Phases of reading and arranging line groups reported to an {@link ArrangeListener}.
+ *
+ * @author Alexey Loubyansky
+ */
+public enum ArrangePhase {
+
+    /** reading all the input op logs */
+    READ,
+    /** loading arranged groups from the cache */
+    CACHE,
+    /** nesting the original groups fully included in bigger ones */
+    CONTAINMENT,
+    /** computing the signatures of the lines and bucketing the lines by signature */
+    REGISTRATION,
+    /** computing the closures of the original groups */
+    CLOSURES,
+    /** assigning the closures to the original groups and ordering the signatures */
+    ORDERING,
+    /** building the groups of the signatures level by level */
+    BUILD,
+    /** assembling the original and new groups into the result */
+    ASSEMBLY
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Binary file of an arranged hierarchy, read through a memory-mapped buffer.
+ *
+ * The file starts with a header of the magic number, format version, number of lines
+ * and number of groups. It is followed by the offsets of the group records,
+ * the offsets of the lines terminated with the end offset of the last line,
+ * the UTF-8 bytes of the lines and the group records. A group record consists
+ * of the name length and bytes, the number and sorted indexes of its lines
+ * and the number and indexes of its nested groups. All the numbers are
+ * little endian ints holding absolute offsets or indexes into the file tables.
+ * The file is therefore limited to 2 GB, which is also the most a single mapped buffer
+ * can address, and writing a bigger hierarchy fails with an {@link IllegalStateException}.
+ *
+ * Groups are materialized lazily when they are looked up, their lines are
+ * interned in the dictionary passed to {@link #open(Path, LineDictionary)} and
+ * decoded only if the dictionary hasn't seen them yet.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ArrangedFile {
+
+    static final int MAGIC = 0x4C475250;
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+
+    public static void write(Path file, Map<String, LineGroup> groups) throws IOException {
+        final Map<String, Integer> groupIndexes = new HashMap<>(groups.size());
+        final LineGroup[] groupArr = groups.values().toArray(new LineGroup[groups.size()]);
+        LineDictionary dictionary = null;
+        int maxLine = -1;
+        for (int i = 0; i < groupArr.length; ++i) {
+            groupIndexes.put(groupArr[i].getName(), i);
+            if (groupArr[i].size() > 0) {
+                if (dictionary == null) {
+                    dictionary = groupArr[i].getDictionary();
+                } else if (groupArr[i].getDictionary() != dictionary) {
+                    throw new IllegalStateException("Group " + groupArr[i].getName() + " uses a different line dictionary");
+                }
+                final int[] lines = groupArr[i].lineIds();
+                maxLine = Math.max(maxLine, lines[lines.length - 1]);
+            }
+        }
+
+        // file line indexes follow the order of the dictionary ids
+        final int[] fileLines = new int[maxLine + 1];
+        Arrays.fill(fileLines, -1);
+        for (LineGroup group : groupArr) {
+            for (int line : group.lineIds()) {
+                fileLines[line] = 0;
+            }
+        }
+        int lineCount = 0;
+        for (int line = 0; line <= maxLine; ++line) {
+            if (fileLines[line] == 0) {
+                fileLines[line] = lineCount++;
+            }
+        }
+        final byte[][] lineBytes = new byte[lineCount][];
+        for (int line = 0; line <= maxLine; ++line) {
+            if (fileLines[line] >= 0) {
+                lineBytes[fileLines[line]] = dictionary.getLine(line).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        final byte[][] names = new byte[groupArr.length][];
+        for (int i = 0; i < groupArr.length; ++i) {
+            names[i] = groupArr[i].getName().getBytes(StandardCharsets.UTF_8);
+        }
+
+        long offset = HEADER + 4L * groupArr.length + 4L * (lineCount + 1);
+        final int[] lineOffsets = new int[lineCount + 1];
+        for (int i = 0; i < lineCount; ++i) {
+            lineOffsets[i] = checkOffset(offset);
+            offset += lineBytes[i].length;
+        }
+        lineOffsets[lineCount] = checkOffset(offset);
+        final int[] groupOffsets = new int[groupArr.length];
+        for (int i = 0; i < groupArr.length; ++i) {
+            groupOffsets[i] = checkOffset(offset);
+            offset += 12 + names[i].length + 4L * groupArr[i].size() + 4L * groupArr[i].getNestedGroupNames().size();
+        }
+        checkOffset(offset);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            writeInt(out, MAGIC);
+            writeInt(out, VERSION);
+            writeInt(out, lineCount);
+            writeInt(out, groupArr.length);
+            for (int groupOffset : groupOffsets) {
+                writeInt(out, groupOffset);
+            }
+            for (int lineOffset : lineOffsets) {
+                writeInt(out, lineOffset);
+            }
+            for (byte[] bytes : lineBytes) {
+                out.write(bytes);
+            }
+            for (int i = 0; i < groupArr.length; ++i) {
+                final LineGroup group = groupArr[i];
+                writeInt(out, names[i].length);
+                out.write(names[i]);
+                writeInt(out, group.size());
+                for (int line : group.lineIds()) {
+                    writeInt(out, fileLines[line]);
+                }
+                writeInt(out, group.getNestedGroupNames().size());
+                for (String nested : group.getNestedGroupNames()) {
+                    final Integer nestedIndex = groupIndexes.get(nested);
+                    if (nestedIndex == null) {
+                        throw new IllegalStateException("Group " + group.getName() + " includes unknown group " + nested);
+                    }
+                    writeInt(out, nestedIndex);
+                }
+            }
+        }
+    }
+
+    public static ArrangedFile open(Path file, LineDictionary dictionary) throws IOException {
+        final MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.limit() < HEADER || buf.getInt(0) != MAGIC) {
+            throw new IllegalStateException(file + " is not an arranged groups file");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IllegalStateException("Unsupported version " + buf.getInt(4) + " of " + file);
+        }
+        return new ArrangedFile(buf, dictionary);
+    }
+
+    private static int checkOffset(long offset) {
+        if (offset > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Arranged groups exceed " + Integer.MAX_VALUE + " bytes");
+        }
+        return (int) offset;
+    }
+
+    private static void writeInt(DataOutputStream out, int i) throws IOException {
+        out.writeInt(Integer.reverseBytes(i));
+    }
+
+    private final MappedByteBuffer buf;
+    private final LineDictionary dictionary;
+    private final int lineCount;
+    private final String[] names;
+    private final Map<String, Integer> groupIndexes;
+    /** dictionary ids of the file lines, -1 for the lines not interned yet */
+    private final int[] lineIds;
+    private final LineGroup[] groups;
+
+    private ArrangedFile(MappedByteBuffer buf, LineDictionary dictionary) {
+        this.buf = buf;
+        this.dictionary = dictionary;
+        lineCount = buf.getInt(8);
+        final int groupCount = buf.getInt(12);
+        names = new String[groupCount];
+        groupIndexes = new HashMap<>(groupCount);
+        for (int i = 0; i < groupCount; ++i) {
+            final int record = groupOffset(i);
+            final byte[] name = new byte[buf.getInt(record)];
+            for (int b = 0; b < name.length; ++b) {
+                name[b] = buf.get(record + 4 + b);
+            }
+            names[i] = new String(name, StandardCharsets.UTF_8);
+            groupIndexes.put(names[i], i);
+        }
+        lineIds = new int[lineCount];
+        Arrays.fill(lineIds, -1);
+        groups = new LineGroup[groupCount];
+    }
+
+    public LineDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int getGroupCount() {
+        return names.length;
+    }
+
+    public LineGroup getGroup(String name) {
+        final Integer index = groupIndexes.get(name);
+        return index == null ? null : getGroup(index);
+    }
+
+    /**
+     * @return  a view of the groups in the file order materializing them on access
+     */
+    public Map<String, LineGroup> toMap() {
+        return new AbstractMap<String, LineGroup>() {
+            @Override
+            public LineGroup get(Object key) {
+                return key instanceof String ? getGroup((String) key) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return groupIndexes.containsKey(key);
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+
+            @Override
+            public Set<Entry<String, LineGroup>> entrySet() {
+                return new AbstractSet<Entry<String, LineGroup>>() {
+                    @Override
+                    public Iterator<Entry<String, LineGroup>> iterator() {
+                        return new Iterator<Entry<String, LineGroup>>() {
+                            int i;
+
+                            @Override
+                            public boolean hasNext() {
+                                return i < names.length;
+                            }
+
+                            @Override
+                            public Entry<String, LineGroup> next() {
+                                if (i == names.length) {
+                                    throw new NoSuchElementException();
+                                }
+                                final int index = i++;
+                                return new SimpleImmutableEntry<>(names[index], getGroup(index));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return names.length;
+                    }
+                };
+            }
+        };
+    }
+
+    private synchronized LineGroup getGroup(int index) {
+        LineGroup group = groups[index];
+        if (group != null) {
+            return group;
+        }
+        final LineGroup.Builder builder = LineGroup.builder(names[index], dictionary);
+        int pos = groupOffset(index);
+        pos += 4 + buf.getInt(pos);
+        final int linesTotal = buf.getInt(pos);
+        pos += 4;
+        final long[] hash = new long[2];
+        for (int i = 0; i < linesTotal; ++i, pos += 4) {
+            final int line = buf.getInt(pos);
+            if (lineIds[line] < 0) {
+                final int start = lineOffset(line);
+                final int length = lineOffset(line + 1) - start;
+                LineHash.hash(buf, start, length, hash);
+                lineIds[line] = dictionary.intern(hash[0], hash[1], buf, start, length);
+            }
+            builder.addLine(lineIds[line]);
+        }
+        final int nestedTotal = buf.getInt(pos);
+        pos += 4;
+        for (int i = 0; i < nestedTotal; ++i, pos += 4) {
+            builder.nestGroup(names[buf.getInt(pos)]);
+        }
+        group = builder.build();
+        groups[index] = group;
+        return group;
+    }
+
+    private int groupOffset(int index) {
+        return buf.getInt(HEADER + 4 * index);
+    }
+
+    private int lineOffset(int line) {
+        return buf.getInt(HEADER + 4 * names.length + 4 * line);
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Arrangement of line groups that can be updated by adding and removing
+ * input groups one at a time.
+ *
+ * It keeps the signature of every line along with the lines bucketed by
+ * signature, so adding or removing a group moves only the lines of that group
+ * between buckets. The nested groups are derived from the buckets the same way
+ * {@link Util#arrange(LineGroup...)} does it, except that original groups included
+ * in other groups are nested through their closures instead of directly.
+ *
+ * Adding or removing a group costs the lines of the group plus a scan of the present
+ * groups. The signatures are kept sorted along with their nested signatures between
+ * the calls to {@link #getGroups()}, which recomputes the nested signatures only for
+ * the signatures that appeared and the subsets of those that appeared or disappeared,
+ * each in a scan of the bigger signatures. Groups whose lines and nested groups did
+ * not change are not rebuilt, but assembling the result is still linear in the
+ * number of signatures.
+ *
+ * @author Alexey Loubyansky
+ */
+public class Arrangement {
+
+    private final LineDictionary dictionary;
+    private final Util.LinesInGroups linesInGroups = new Util.LinesInGroups(0);
+    private final Map<String, Integer> slots = new HashMap<>();
+    /** input groups by their signature index, null for a free index */
+    private final List<LineGroup> inputs = new ArrayList<>();
+    /** groups that include all the lines of the input group at the same index */
+    private final List<BitSet> closures = new ArrayList<>();
+    private final Map<BitSet, BitSet> partitions = new HashMap<>();
+    /** signatures whose lines changed since the groups were last arranged */
+    private final Set<BitSet> dirty = new HashSet<>();
+    /** the free indexes of the inputs */
+    private final BitSet freeSlots = new BitSet();
+    /** the signatures of the last arrangement in the order of {@link Util#compareSignatures(BitSet, BitSet)} */
+    private final TreeSet<BitSet> sorted = new TreeSet<>(Util::compareSignatures);
+    /** the minimal strict supersets of the sorted signatures */
+    private final Map<BitSet, List<BitSet>> nesting = new HashMap<>();
+    private Map<BitSet, LineGroup> rebuilt = Collections.emptyMap();
+    private Map<String, LineGroup> arranged;
+
+    public Arrangement(LineDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public LineDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public boolean contains(String name) {
+        return slots.containsKey(name);
+    }
+
+    /**
+     * @return  names of the input groups containing the line
+     */
+    public Set<String> getGroupNames(String line) {
+        final int id = dictionary.getId(line);
+        final BitSet signature = id < 0 ? null : linesInGroups.getSignature(id);
+        if (signature == null) {
+            return Collections.emptySet();
+        }
+        final Set<String> names = new HashSet<>(signature.cardinality());
+        for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1)) {
+            names.add(inputs.get(i).getName());
+        }
+        return names;
+    }
+
+    public void add(LineGroup group) {
+        if (group.getDictionary() != dictionary) {
+            throw new IllegalStateException("Group " + group.getName() + " uses a different line dictionary");
+        }
+        if (slots.containsKey(group.getName())) {
+            throw new IllegalStateException("Duplicate group name " + group.getName());
+        }
+        final int slot = freeSlots.isEmpty() ? inputs.size() : freeSlots.nextSetBit(0);
+
+        // the new signatures and the closure are computed before anything is changed,
+        // overlaps hold the number of lines the new group shares with each of the present groups
+        final int[] overlaps = new int[Math.max(inputs.size(), slot + 1)];
+        final Map<BitSet, BitSet> transitions = new HashMap<>();
+        final BitSet[] targets = new BitSet[group.size()];
+        BitSet closure = null;
+        final int[] lines = group.lineIds();
+        for (int l = 0; l < lines.length; ++l) {
+            final BitSet signature = linesInGroups.getSignature(lines[l]);
+            BitSet added = signature == null ? null : transitions.get(signature);
+            if (added == null) {
+                added = signature == null ? new BitSet() : (BitSet) signature.clone();
+                added.set(slot);
+                if (signature != null) {
+                    transitions.put(signature, added);
+                }
+            }
+            if (signature != null) {
+                for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1)) {
+                    ++overlaps[i];
+                }
+            }
+            targets[l] = added;
+            if (closure == null) {
+                closure = (BitSet) added.clone();
+            } else {
+                closure.and(added);
+            }
+        }
+        final List<Integer> included = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); ++i) {
+            final LineGroup other = inputs.get(i);
+            if (other == null || other.size() == 0 || overlaps[i] != other.size()) {
+                continue;
+            }
+            if (!group.hasNestedGroups() && !other.hasNestedGroups()) {
+                final BitSet otherClosure = (BitSet) closures.get(i).clone();
+                otherClosure.set(slot);
+                if (otherClosure.equals(closure)) {
+                    throw new IllegalStateException("Groups " + other.getName() + " and " + group.getName()
+                            + " appear to be identical");
+                }
+            }
+            included.add(i);
+        }
+
+        if (slot == inputs.size()) {
+            inputs.add(group);
+            closures.add(closure);
+        } else {
+            freeSlots.clear(slot);
+            inputs.set(slot, group);
+            closures.set(slot, closure);
+        }
+        slots.put(group.getName(), slot);
+        for (int l = 0; l < lines.length; ++l) {
+            move(lines[l], linesInGroups.getSignature(lines[l]), targets[l]);
+        }
+        for (int i : included) {
+            final BitSet includedClosure = (BitSet) closures.get(i).clone();
+            includedClosure.set(slot);
+            closures.set(i, includedClosure);
+        }
+        arranged = null;
+    }
+
+    /**
+     * @return  the removed input group or null if there was no group with the name
+     */
+    public LineGroup remove(String name) {
+        final Integer slot = slots.remove(name);
+        if (slot == null) {
+            return null;
+        }
+        final LineGroup group = inputs.set(slot, null);
+        closures.set(slot, null);
+        freeSlots.set(slot);
+        final Map<BitSet, BitSet> transitions = new HashMap<>();
+        for (int line : group.lineIds()) {
+            final BitSet signature = linesInGroups.getSignature(line);
+            BitSet removed = transitions.get(signature);
+            if (removed == null) {
+                removed = (BitSet) signature.clone();
+                removed.clear(slot);
+                transitions.put(signature, removed);
+            }
+            move(line, signature, removed.isEmpty() ? null : removed);
+        }
+        for (int i = 0; i < closures.size(); ++i) {
+            final BitSet closure = closures.get(i);
+            if (closure != null && closure.get(slot)) {
+                final BitSet updated = (BitSet) closure.clone();
+                updated.clear(slot);
+                closures.set(i, updated);
+            }
+        }
+        arranged = null;
+        return group;
+    }
+
+    /**
+     * @return  the arranged groups, rebuilding only those whose lines or nested groups changed
+     */
+    public Map<String, LineGroup> getGroups() {
+        if (arranged != null) {
+            return arranged;
+        }
+
+        final Set<BitSet> nodes = new HashSet<>(partitions.keySet());
+        final Map<BitSet, String> names = new HashMap<>(nodes.size());
+        for (int i = 0; i < inputs.size(); ++i) {
+            final BitSet closure = closures.get(i);
+            if (closure == null) {
+                continue;
+            }
+            nodes.add(closure);
+            if (closure.cardinality() == 1 || !inputs.get(i).hasNestedGroups()) {
+                names.put(closure, inputs.get(i).getName());
+            }
+        }
+        updateNesting(nodes);
+
+        // new groups are named after their content, so the nested groups, i.e. the bigger signatures, go first
+        final Map<BitSet, LineGroup> nodeGroups = new HashMap<>(sorted.size());
+        for (BitSet signature : sorted.descendingSet()) {
+            final String name = names.get(signature);
+            final Set<String> nested = new HashSet<>();
+            for (BitSet nestedSignature : nesting.get(signature)) {
+                nested.add(names.get(nestedSignature));
+            }
+            final Integer original = name == null ? null : slots.get(name);
+            if (original != null) {
+                nested.addAll(inputs.get(original).getNestedGroupNames());
+            }
+            LineGroup group = rebuilt.get(signature);
+            if (group == null || dirty.contains(signature)
+                    || !group.getName().equals(name == null ? group.getContentId() : name)
+                    || !group.getNestedGroupNames().equals(nested)) {
+                final LineGroup.Builder builder = LineGroup.builder(name, dictionary);
+                final BitSet lines = partitions.get(signature);
+                if (lines != null) {
+                    builder.setLines((BitSet) lines.clone());
+                }
+                for (String nestedGroup : nested) {
+                    builder.nestGroup(nestedGroup);
+                }
+                if (name == null) {
+                    builder.nameByContent();
+                }
+                group = builder.build();
+            }
+            names.put(signature, group.getName());
+            nodeGroups.put(signature, group);
+        }
+
+        final Map<String, LineGroup> groups = new LinkedHashMap<>(inputs.size() + sorted.size());
+        for (int i = 0; i < inputs.size(); ++i) {
+            final LineGroup input = inputs.get(i);
+            if (input == null) {
+                continue;
+            }
+            final BitSet closure = closures.get(i);
+            if (closure == null) {
+                groups.put(input.getName(), input);
+            } else if (input.getName().equals(names.get(closure))) {
+                groups.put(input.getName(), nodeGroups.get(closure));
+            } else {
+                final LineGroup.Builder builder = LineGroup.builder(input.getName(), dictionary).nestGroup(names.get(closure));
+                for (String nestedGroup : input.getNestedGroupNames()) {
+                    builder.nestGroup(nestedGroup);
+                }
+                groups.put(input.getName(), builder.build());
+            }
+        }
+        for (BitSet signature : sorted) {
+            Util.putNewGroup(groups, nodeGroups.get(signature));
+        }
+        rebuilt = nodeGroups;
+        dirty.clear();
+        arranged = Collections.unmodifiableMap(groups);
+        return arranged;
+    }
+
+    /**
+     * Brings the sorted signatures up to date with the current ones and recomputes the nested signatures
+     * of those that were added and of the subsets of the added and removed ones, the minimal
+     * strict supersets of the other signatures can't have changed.
+     */
+    private void updateNesting(Set<BitSet> nodes) {
+        final List<BitSet> changed = new ArrayList<>();
+        for (Iterator<BitSet> i = sorted.iterator(); i.hasNext();) {
+            final BitSet signature = i.next();
+            if (!nodes.contains(signature)) {
+                i.remove();
+                nesting.remove(signature);
+                changed.add(signature);
+            }
+        }
+        final List<BitSet> added = new ArrayList<>();
+        for (BitSet signature : nodes) {
+            if (sorted.add(signature)) {
+                added.add(signature);
+            }
+        }
+        changed.addAll(added);
+        if (changed.isEmpty()) {
+            return;
+        }
+        final Set<BitSet> affected = new HashSet<>(added);
+        for (BitSet signature : sorted) {
+            if (affected.contains(signature)) {
+                continue;
+            }
+            final int cardinality = signature.cardinality();
+            for (BitSet change : changed) {
+                if (change.cardinality() > cardinality && Util.includes(change, signature)) {
+                    affected.add(signature);
+                    break;
+                }
+            }
+        }
+        for (BitSet signature : affected) {
+            final int cardinality = signature.cardinality();
+            final List<BitSet> nested = new ArrayList<>();
+            for (BitSet candidate : sorted.tailSet(signature, false)) {
+                if (candidate.cardinality() == cardinality || !Util.includes(candidate, signature)) {
+                    continue;
+                }
+                boolean minimal = true;
+                for (BitSet other : nested) {
+                    if (Util.includes(candidate, other)) {
+                        minimal = false;
+                        break;
+                    }
+                }
+                if (minimal) {
+                    nested.add(candidate);
+                }
+            }
+            nesting.put(signature, nested);
+        }
+    }
+
+    private void move(int line, BitSet from, BitSet to) {
+        if (from != null) {
+            final BitSet lines = partitions.get(from);
+            lines.clear(line);
+            if (lines.isEmpty()) {
+                partitions.remove(from);
+            }
+            dirty.add(from);
+        }
+        if (to != null) {
+            BitSet lines = partitions.get(to);
+            if (lines == null) {
+                lines = new BitSet();
+                partitions.put(to, lines);
+            }
+            lines.set(line);
+            dirty.add(to);
+        }
+        linesInGroups.setSignature(line, to);
+    }
+}
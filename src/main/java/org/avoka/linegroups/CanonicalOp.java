@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+
+/**
+ * Canonical form of a JSON op covering the fields {@link Main#toCliLine(ModelNode)} walks:
+ * the address, the operation and the defined parameters sorted by name.
+ * Object keys in the parameter values are sorted too, every value is tagged
+ * with its type and every string is prefixed with its length.
+ *
+ * @author Alexey Loubyansky
+ */
+final class CanonicalOp {
+
+    private static final String ADDRESS = "address";
+    private static final String OPERATION = "operation";
+
+    private CanonicalOp() {
+    }
+
+    /**
+     * @return  canonical form of the op or null if the line is not a JSON op
+     */
+    static String canonicalize(String line) {
+        final ModelNode op;
+        try {
+            op = ModelNode.fromJSONString(line);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (op.getType() != ModelType.OBJECT || !op.hasDefined(OPERATION)) {
+            return null;
+        }
+        final StringBuilder buf = new StringBuilder(line.length());
+        buf.append('\u0000');
+        if (op.hasDefined(ADDRESS)) {
+            final List<Property> address = op.get(ADDRESS).asPropertyList();
+            buf.append(address.size());
+            for (Property prop : address) {
+                appendString(prop.getName(), buf);
+                appendValue(prop.getValue(), buf);
+            }
+        } else {
+            buf.append('0');
+        }
+        appendString(op.get(OPERATION).asString(), buf);
+        final Set<String> keys = op.keys();
+        final String[] params = keys.toArray(new String[keys.size()]);
+        Arrays.sort(params);
+        for (String param : params) {
+            if (param.equals(ADDRESS) || param.equals(OPERATION) || !op.hasDefined(param)) {
+                continue;
+            }
+            appendString(param, buf);
+            appendValue(op.get(param), buf);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * @return  names and values of the op address elements alternating, or null if the line is not a JSON op
+     */
+    static String[] address(String line) {
+        final ModelNode op;
+        try {
+            op = ModelNode.fromJSONString(line);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (op.getType() != ModelType.OBJECT || !op.hasDefined(OPERATION)) {
+            return null;
+        }
+        if (!op.hasDefined(ADDRESS)) {
+            return new String[0];
+        }
+        final List<Property> address = op.get(ADDRESS).asPropertyList();
+        final String[] elements = new String[address.size() << 1];
+        for (int i = 0; i < address.size(); ++i) {
+            elements[i << 1] = address.get(i).getName();
+            elements[(i << 1) + 1] = address.get(i).getValue().asString();
+        }
+        return elements;
+    }
+
+    private static void appendValue(ModelNode value, StringBuilder buf) {
+        final ModelType type = value.getType();
+        buf.append((char) (type.ordinal() + 'A'));
+        switch (type) {
+            case OBJECT:
+                final Set<String> keys = value.keys();
+                final String[] sorted = keys.toArray(new String[keys.size()]);
+                Arrays.sort(sorted);
+                buf.append(sorted.length);
+                for (String key : sorted) {
+                    appendString(key, buf);
+                    appendValue(value.get(key), buf);
+                }
+                break;
+            case LIST:
+                final List<ModelNode> list = value.asList();
+                buf.append(list.size());
+                for (ModelNode item : list) {
+                    appendValue(item, buf);
+                }
+                break;
+            case PROPERTY:
+                final Property prop = value.asProperty();
+                appendString(prop.getName(), buf);
+                appendValue(prop.getValue(), buf);
+                break;
+            case UNDEFINED:
+                break;
+            default:
+                appendString(value.asString(), buf);
+        }
+    }
+
+    private static void appendString(String str, StringBuilder buf) {
+        buf.append(str.length()).append(':').append(str);
+    }
+}
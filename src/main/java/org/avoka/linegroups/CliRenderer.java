@@ -0,0 +1,332 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Renders JSON ops as CLI lines in the form {@code /addr=val:op(k="v",...)}
+ * following the same rules as {@link Main#toCliLine(ModelNode)} without building
+ * a {@link ModelNode} tree for the whole op.
+ *
+ * The op is tokenized once and written into reusable buffers. Only object and list
+ * parameter values are parsed with {@link ModelNode} to keep their DMR string format.
+ * Anything the tokenizer doesn't expect makes it fall back to {@link Main#toCliLine(ModelNode)}.
+ * Rendered lines are cached by line id, so an op shared by many groups is rendered once.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Alexey Loubyansky
+ */
+public class CliRenderer {
+
+    private static final String ADDRESS = "address";
+    private static final String OPERATION = "operation";
+
+    /**
+     * Thrown when the op can't be rendered by the tokenizer.
+     */
+    private static class Fallback extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Fallback() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Fallback FALLBACK = new Fallback();
+
+    private final LineDictionary dictionary;
+    private String[] rendered = new String[0];
+
+    private final StringBuilder address = new StringBuilder();
+    private final StringBuilder params = new StringBuilder();
+    private final StringBuilder str = new StringBuilder();
+    private final List<String> keys = new ArrayList<>();
+    private String json;
+    private int pos;
+
+    public CliRenderer(LineDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return  CLI line for the op with the given id in the dictionary
+     */
+    public String render(int id) {
+        if (id >= rendered.length) {
+            rendered = Arrays.copyOf(rendered, Math.max(id + 1, dictionary.size()));
+        }
+        String line = rendered[id];
+        if (line == null) {
+            line = render(dictionary.getLine(id));
+            rendered[id] = line;
+        }
+        return line;
+    }
+
+    /**
+     * @return  CLI line for the JSON op
+     */
+    public String render(String op) {
+        try {
+            return tokenize(op);
+        } catch (Fallback | RuntimeException e) {
+            return Main.toCliLine(ModelNode.fromJSONString(op));
+        } finally {
+            json = null;
+        }
+    }
+
+    private String tokenize(String op) throws Fallback {
+        json = op;
+        pos = 0;
+        address.setLength(0);
+        params.setLength(0);
+        keys.clear();
+        String operation = null;
+        int p = 0;
+        expect('{');
+        if (peek() == '}') {
+            throw FALLBACK;
+        }
+        do {
+            final String key = readString();
+            expect(':');
+            if (keys.contains(key)) {
+                // DMR would keep the last value at the position of the first one
+                throw FALLBACK;
+            }
+            keys.add(key);
+            final char c = peek();
+            if (key.equals(ADDRESS)) {
+                if (c == 'n') {
+                    readLiteral("null");
+                } else {
+                    readAddress();
+                }
+            } else if (key.equals(OPERATION)) {
+                operation = readString();
+            } else if (c == 'n') {
+                readLiteral("null");
+            } else {
+                if (p++ > 0) {
+                    params.append(',');
+                }
+                params.append(key).append('=');
+                if (c == '"') {
+                    appendSimple(readString());
+                } else if (c == 't') {
+                    readLiteral("true");
+                    appendSimple("true");
+                } else if (c == 'f') {
+                    readLiteral("false");
+                    appendSimple("false");
+                } else if (c == '{' || c == '[') {
+                    final int start = pos;
+                    skipValue();
+                    Main.appendCliValue(ModelNode.fromJSONString(json.substring(start, pos)), params);
+                } else {
+                    appendSimple(readInteger());
+                }
+            }
+        } while (next(',', '}') == ',');
+        skipWhitespace();
+        if (pos != json.length() || operation == null) {
+            throw FALLBACK;
+        }
+
+        final StringBuilder buf = new StringBuilder(1 + address.length() + 1 + operation.length() + params.length() + 2);
+        buf.append('/').append(address).append(':').append(operation);
+        if (keys.size() > 2) {
+            buf.append('(').append(params).append(')');
+        }
+        return buf.toString();
+    }
+
+    private void readAddress() throws Fallback {
+        expect('[');
+        if (peek() == ']') {
+            ++pos;
+            return;
+        }
+        int i = 0;
+        do {
+            expect('{');
+            if (i++ > 0) {
+                address.append('/');
+            }
+            address.append(readString());
+            expect(':');
+            address.append('=').append(readString());
+            expect('}');
+        } while (next(',', ']') == ',');
+    }
+
+    private void appendSimple(String value) {
+        params.append('"');
+        if (!value.isEmpty() && value.charAt(0) == '$') {
+            params.append('\\');
+        }
+        params.append(value).append('"');
+    }
+
+    private String readString() throws Fallback {
+        expect('"');
+        str.setLength(0);
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return str.toString();
+            }
+            if (c == '\\') {
+                if (pos == json.length()) {
+                    throw FALLBACK;
+                }
+                c = json.charAt(pos++);
+                switch (c) {
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw FALLBACK;
+                        }
+                        try {
+                            c = (char) Integer.parseInt(json.substring(pos, pos + 4), 16);
+                        } catch (NumberFormatException e) {
+                            throw FALLBACK;
+                        }
+                        pos += 4;
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    default:
+                        throw FALLBACK;
+                }
+            }
+            str.append(c);
+        }
+        throw FALLBACK;
+    }
+
+    /**
+     * Reads an integer that DMR would print the same way it is written in JSON.
+     */
+    private String readInteger() throws Fallback {
+        final int start = pos;
+        if (pos < json.length() && json.charAt(pos) == '-') {
+            ++pos;
+        }
+        final int digits = pos;
+        while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+            ++pos;
+        }
+        if (pos == digits || json.charAt(digits) == '0' && (pos - digits > 1 || digits > start)) {
+            throw FALLBACK;
+        }
+        if (pos < json.length()) {
+            final char c = json.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                throw FALLBACK;
+            }
+        }
+        return json.substring(start, pos);
+    }
+
+    private void readLiteral(String literal) throws Fallback {
+        if (!json.startsWith(literal, pos)) {
+            throw FALLBACK;
+        }
+        pos += literal.length();
+    }
+
+    /**
+     * Skips an object or a list respecting the strings in it.
+     */
+    private void skipValue() throws Fallback {
+        int depth = 0;
+        while (pos < json.length()) {
+            final char c = json.charAt(pos++);
+            if (c == '"') {
+                while (pos < json.length() && json.charAt(pos) != '"') {
+                    pos += json.charAt(pos) == '\\' ? 2 : 1;
+                }
+                ++pos;
+            } else if (c == '{' || c == '[') {
+                ++depth;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) {
+                    return;
+                }
+            }
+        }
+        throw FALLBACK;
+    }
+
+    private char peek() throws Fallback {
+        skipWhitespace();
+        if (pos == json.length()) {
+            throw FALLBACK;
+        }
+        return json.charAt(pos);
+    }
+
+    private void expect(char c) throws Fallback {
+        if (peek() != c) {
+            throw FALLBACK;
+        }
+        ++pos;
+    }
+
+    private char next(char c1, char c2) throws Fallback {
+        final char c = peek();
+        if (c != c1 && c != c2) {
+            throw FALLBACK;
+        }
+        ++pos;
+        return c;
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length()) {
+            final char c = json.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            ++pos;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps the op logs of a directory arranged in memory and serves the groups over HTTP.
+ *
+ * The directory is watched for created, modified and deleted files. Only the changed files
+ * are read again and replaced in an {@link Arrangement}, which rebuilds only the affected groups.
+ * The endpoints are
+ * <ul>
+ * <li>/groups - names of the arranged groups, one per line</li>
+ * <li>/groups/NAME - the nested groups of the group as comments followed by its own CLI lines</li>
+ * <li>/scripts/NAME - CLI lines of the group and all the groups nested in it</li>
+ * <li>/delta/FROM/TO - the groups and CLI lines to remove from the first group, prefixed with '-',
+ * and to add to it, prefixed with '+', to turn it into the second one</li>
+ * <li>/address/ADDRESS - names of the groups with ops at or under the address, e.g. /address/subsystem=undertow,
+ * with the including query parameter also the groups including them, a '/', '=' or '\' within a name or value
+ * is escaped with a '\'</li>
+ * </ul>
+ *
+ * Requests are served by the single dispatcher thread of the server from a snapshot of
+ * the groups published after every update.
+ *
+ * The daemon interns the lines in its own dictionary, which keeps the lines of the replaced
+ * op logs. Once the dictionary holds more than twice as many lines as the arranged groups,
+ * the directory is arranged again into a new dictionary, so the memory stays proportional
+ * to the current op logs however many updates the daemon has seen.
+ *
+ * @author Alexey Loubyansky
+ */
+public class Daemon {
+
+    public static final int DEFAULT_PORT = 7474;
+
+    /** time to wait for more events before the changed files are read */
+    private static final long SETTLE_MILLIS = 100;
+    /** the dictionary is rebuilt when it holds more than this many times the lines of the groups */
+    private static final int COMPACT_RATIO = 2;
+    /** the smallest dictionary that is rebuilt */
+    private static final int COMPACT_MIN_LINES = 1 << 16;
+
+    private static class Snapshot {
+        final Map<String, LineGroup> groups;
+        final GroupResolver resolver;
+        final LineDictionary dictionary;
+        final CliRenderer renderer;
+        /** created on the first address query */
+        AddressIndex addressIndex;
+
+        Snapshot(Map<String, LineGroup> groups, LineDictionary dictionary, CliRenderer renderer) {
+            this.groups = groups;
+            this.resolver = new GroupResolver(groups);
+            this.dictionary = dictionary;
+            this.renderer = renderer;
+        }
+    }
+
+    private final Path dir;
+    private final boolean canonical;
+    private final int compactMinLines;
+    private LineDictionary dictionary;
+    private Arrangement arrangement;
+    private CliRenderer renderer;
+    private volatile Snapshot snapshot;
+    private HttpServer server;
+    private WatchService watchService;
+
+    /**
+     * Creates a daemon identifying the ops by their canonical form.
+     */
+    public Daemon(Path dir) {
+        this(dir, true);
+    }
+
+    /**
+     * @param canonical  whether the ops are identified by their canonical form or by their text
+     */
+    public Daemon(Path dir, boolean canonical) {
+        this(dir, canonical, COMPACT_MIN_LINES);
+    }
+
+    Daemon(Path dir, boolean canonical, int compactMinLines) {
+        this.dir = dir;
+        this.canonical = canonical;
+        this.compactMinLines = compactMinLines;
+        newDictionary();
+        snapshot = new Snapshot(Collections.emptyMap(), dictionary, renderer);
+    }
+
+    /**
+     * Arranges the files of the directory and starts serving them.
+     */
+    public void start(InetSocketAddress address) throws IOException {
+        watchService = dir.getFileSystem().newWatchService();
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        reload();
+        server = HttpServer.create(address, 0);
+        server.createContext("/groups", this::handleGroup);
+        server.createContext("/scripts", this::handleScript);
+        server.createContext("/delta", this::handleDelta);
+        server.createContext("/address", this::handleAddress);
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public Map<String, LineGroup> getGroups() {
+        return snapshot.groups;
+    }
+
+    /**
+     * Applies the changes of the directory until the daemon is stopped.
+     */
+    public void watch() throws IOException, InterruptedException {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                final Set<String> changed = new TreeSet<>();
+                boolean overflow = false;
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            changed.add(((Path) event.context()).getFileName().toString());
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IllegalStateException(dir + " is no longer accessible");
+                    }
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (overflow) {
+                    reload();
+                } else {
+                    update(changed);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    public void stop() throws IOException {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Replaces all the groups with the op logs currently in the directory.
+     */
+    private synchronized void reload() throws IOException {
+        final Set<String> names = listFiles();
+        for (LineGroup group : snapshot.groups.values()) {
+            if (arrangement.contains(group.getName())) {
+                names.add(group.getName());
+            }
+        }
+        update(names);
+    }
+
+    /**
+     * Reads the files with the given names again, removing the groups of the files that are gone,
+     * and rebuilds the dictionary if most of its lines are no longer used.
+     */
+    synchronized void update(Set<String> names) throws IOException {
+        apply(names);
+        final int dictionarySize = dictionary.size();
+        if (dictionarySize >= compactMinLines && dictionarySize > COMPACT_RATIO * countLines(snapshot.groups)) {
+            newDictionary();
+            apply(listFiles());
+        }
+    }
+
+    private void newDictionary() {
+        dictionary = canonical ? LineDictionary.canonicalOps() : new LineDictionary();
+        arrangement = new Arrangement(dictionary);
+        renderer = new CliRenderer(dictionary);
+    }
+
+    private Set<String> listFiles() throws IOException {
+        final Set<String> names = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        return names;
+    }
+
+    private static int countLines(Map<String, LineGroup> groups) {
+        final BitSet lines = new BitSet();
+        for (LineGroup group : groups.values()) {
+            for (int line : group.lineIds()) {
+                lines.set(line);
+            }
+        }
+        return lines.cardinality();
+    }
+
+    private void apply(Set<String> names) {
+        for (String name : names) {
+            final Path file = dir.resolve(name);
+            arrangement.remove(name);
+            if (name.startsWith(".") || !Files.isRegularFile(file)) {
+                continue;
+            }
+            try {
+                arrangement.add(OpLogReader.read(name, file, dictionary));
+            } catch (IOException | IllegalStateException e) {
+                System.err.println("Skipped " + file + ": " + e.getMessage());
+            }
+        }
+        snapshot = new Snapshot(arrangement.getGroups(), dictionary, renderer);
+    }
+
+    private void handleGroup(HttpExchange exchange) throws IOException {
+        final Snapshot current = snapshot;
+        final String name = groupName(exchange, "/groups");
+        final StringBuilder buf = new StringBuilder();
+        if (name == null) {
+            for (String groupName : current.groups.keySet()) {
+                buf.append(groupName).append('\n');
+            }
+        } else {
+            final LineGroup group = current.groups.get(name);
+            if (group == null) {
+                send(exchange, 404, "Unknown group " + name + '\n');
+                return;
+            }
+            final String[] nested = group.getNestedGroupNames().toArray(new String[group.getNestedGroupNames().size()]);
+            Arrays.sort(nested);
+            for (String nestedGroup : nested) {
+                buf.append("# include ").append(nestedGroup).append('\n');
+            }
+            appendLines(current, group.getLineIds(), buf);
+        }
+        send(exchange, 200, buf.toString());
+    }
+
+    private void handleScript(HttpExchange exchange) throws IOException {
+        final Snapshot current = snapshot;
+        final String name = groupName(exchange, "/scripts");
+        if (name == null || !current.groups.containsKey(name)) {
+            send(exchange, 404, name == null ? "Group name expected\n" : "Unknown group " + name + '\n');
+            return;
+        }
+        final StringBuilder buf = new StringBuilder();
+        appendLines(current, current.resolver.getLineIds(name), buf);
+        send(exchange, 200, buf.toString());
+    }
+
+    private void handleDelta(HttpExchange exchange) throws IOException {
+        final Snapshot current = snapshot;
+        final String names = groupName(exchange, "/delta");
+        final int separator = names == null ? -1 : names.indexOf('/');
+        if (separator < 0) {
+            send(exchange, 404, "Two group names expected\n");
+            return;
+        }
+        final String from = names.substring(0, separator);
+        final String to = names.substring(separator + 1);
+        for (String name : new String[] {from, to}) {
+            if (!current.groups.containsKey(name)) {
+                send(exchange, 404, "Unknown group " + name + '\n');
+                return;
+            }
+        }
+        final GroupDelta delta = current.resolver.getDelta(from, to);
+        final StringBuilder buf = new StringBuilder();
+        for (String group : delta.getRemovedGroups()) {
+            buf.append("# - ").append(group).append('\n');
+        }
+        for (String group : delta.getAddedGroups()) {
+            buf.append("# + ").append(group).append('\n');
+        }
+        appendLines(current, delta.getRemovedLineIds(), "- ", buf);
+        appendLines(current, delta.getAddedLineIds(), "+ ", buf);
+        send(exchange, 200, buf.toString());
+    }
+
+    private void handleAddress(HttpExchange exchange) throws IOException {
+        final Snapshot current = snapshot;
+        if (current.addressIndex == null) {
+            current.addressIndex = new AddressIndex(current.groups);
+        }
+        final String path = groupName(exchange, "/address");
+        final String[] address;
+        try {
+            address = AddressIndex.parseAddress(path == null ? "" : path);
+        } catch (IllegalStateException e) {
+            send(exchange, 400, e.getMessage() + '\n');
+            return;
+        }
+        final String query = exchange.getRequestURI().getQuery();
+        final boolean including = query != null && Arrays.asList(query.split("&")).contains("including");
+        final Set<String> groups = including ? current.addressIndex.getIncludingGroups(address)
+                : current.addressIndex.getGroups(address);
+        final StringBuilder buf = new StringBuilder();
+        for (String group : groups) {
+            buf.append(group).append('\n');
+        }
+        send(exchange, 200, buf.toString());
+    }
+
+    private static void appendLines(Snapshot snapshot, int[] ids, StringBuilder buf) {
+        appendLines(snapshot, ids, "", buf);
+    }
+
+    /**
+     * Appends the CLI lines ordered by the text of the ops, lines that are not ops are appended as they are.
+     */
+    private static void appendLines(Snapshot snapshot, int[] ids, String prefix, StringBuilder buf) {
+        final LineDictionary dictionary = snapshot.dictionary;
+        final Integer[] arr = new Integer[ids.length];
+        for (int i = 0; i < arr.length; ++i) {
+            arr[i] = ids[i];
+        }
+        Arrays.sort(arr, (o1, o2) -> dictionary.getLine(o1).compareTo(dictionary.getLine(o2)));
+        for (int id : arr) {
+            String line;
+            try {
+                line = snapshot.renderer.render(id);
+            } catch (RuntimeException e) {
+                line = dictionary.getLine(id);
+            }
+            buf.append(prefix).append(line).append('\n');
+        }
+    }
+
+    /**
+     * @return  the group name following the context path or null if there is none
+     */
+    private static String groupName(HttpExchange exchange, String context) {
+        final String path = exchange.getRequestURI().getPath();
+        return path.length() > context.length() + 1 ? path.substring(context.length() + 1) : null;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            status = 405;
+            body = "Only GET is supported\n";
+        }
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: Daemon <op log directory> [port]");
+            System.exit(1);
+        }
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        final Daemon daemon = new Daemon(Paths.get(args[0]));
+        daemon.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        System.out.println("Serving " + args[0] + " at http://" + daemon.getAddress().getHostString() + ':'
+                + daemon.getAddress().getPort());
+        daemon.watch();
+    }
+}
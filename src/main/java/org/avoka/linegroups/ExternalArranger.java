@@ -0,0 +1,825 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Arranges op logs that don't fit in the heap into an {@link ArrangedFile}.
+ *
+ * The lines of the files are streamed as records of the line key, the file index
+ * and the location of the line into sorted spill files of a bounded size.
+ * At most {@link #DEFAULT_FAN_IN} spill files are open at a time, if there are more
+ * of them they are first merged in batches into bigger spill files, so the number of the open
+ * files and the memory of their read buffers stay bounded however big the input is.
+ * The spill files are merged, every distinct key yielding the signature of the line,
+ * i.e. the files containing it. Only the signatures along with the number of their lines
+ * and the sums of the line keys are kept in memory, the lines themselves are written
+ * to another temporary file in the merge order. The containment of the input groups and
+ * the nested groups are then derived from the signatures the same way {@link Util#arrange(LineGroup...)}
+ * does it, and the lines are copied from the op logs into the arranged file.
+ *
+ * The result is the same as that of arranging the groups read with {@link OpLogReader#readAll(LineDictionary, Path...)}.
+ * With a canonical dictionary the spill files keyed by the line texts are merged once more,
+ * canonicalizing every distinct text, into spill files keyed by the canonical op forms.
+ * The text kept for the lines with the same canonical form is the one found first in the order of the files.
+ *
+ * The arranged file addresses its content with int offsets, see {@link ArrangedFile},
+ * so the arranged lines and groups are limited to 2 GB. An arrangement exceeding it fails
+ * with an {@link IllegalStateException} before the output is written.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ExternalArranger {
+
+    /** key halves, file index, offset and length */
+    private static final int RECORD = 32;
+    private static final int WINDOW = 1 << 30;
+    private static final int IO_BUFFER = 1 << 16;
+    /** maximum number of the spill files merged at once */
+    static final int DEFAULT_FAN_IN = 64;
+
+    /**
+     * Lines with the same signature over the input files.
+     */
+    private static class Partition {
+        final int id;
+        BitSet signature;
+        int lines;
+        long bytes;
+        long keyHi;
+        long keyLo;
+        /** partition of the signature left after the containment */
+        Partition node;
+        /** file index of the next line of the node */
+        int nextLine;
+        long nextByte;
+
+        Partition(int id, BitSet signature) {
+            this.id = id;
+            this.signature = signature;
+        }
+
+        void add(long hi, long lo, int length) {
+            ++lines;
+            bytes += length;
+            keyHi += LineHash.fmix(hi);
+            keyLo += LineHash.fmix(lo);
+        }
+
+        void add(Partition other) {
+            lines += other.lines;
+            bytes += other.bytes;
+            keyHi += other.keyHi;
+            keyLo += other.keyLo;
+        }
+    }
+
+    /**
+     * Arranged group to be written to the file.
+     */
+    private static class Record {
+        final String name;
+        final Partition lines;
+        final Collection<String> nested;
+
+        Record(String name, Partition lines, Collection<String> nested) {
+            this.name = name;
+            this.lines = lines;
+            this.nested = nested;
+        }
+    }
+
+    /**
+     * Line records collected in memory, sorted and written to a spill file when full.
+     */
+    private static class SortBuffer {
+        final long[] hi;
+        final long[] lo;
+        final int[] file;
+        final long[] offset;
+        final int[] length;
+        int size;
+
+        SortBuffer(int capacity) {
+            hi = new long[capacity];
+            lo = new long[capacity];
+            file = new int[capacity];
+            offset = new long[capacity];
+            length = new int[capacity];
+        }
+
+        boolean isFull() {
+            return size == hi.length;
+        }
+
+        void add(long hi, long lo, int file, long offset, int length) {
+            this.hi[size] = hi;
+            this.lo[size] = lo;
+            this.file[size] = file;
+            this.offset[size] = offset;
+            this.length[size] = length;
+            ++size;
+        }
+
+        /**
+         * Writes the records in the merge order skipping the repeated lines of a file.
+         */
+        void spill(Path spill) throws IOException {
+            sort(0, size);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spill), IO_BUFFER))) {
+                for (int i = 0; i < size; ++i) {
+                    if (i > 0 && hi[i] == hi[i - 1] && lo[i] == lo[i - 1] && file[i] == file[i - 1]) {
+                        continue;
+                    }
+                    out.writeLong(hi[i]);
+                    out.writeLong(lo[i]);
+                    out.writeInt(file[i]);
+                    out.writeLong(offset[i]);
+                    out.writeInt(length[i]);
+                }
+            }
+            size = 0;
+        }
+
+        private void sort(int from, int to) {
+            while (to - from > 16) {
+                final int pivot = from + ((to - from) >>> 1);
+                swap(pivot, to - 1);
+                int store = from;
+                for (int i = from; i < to - 1; ++i) {
+                    if (compare(i, to - 1) < 0) {
+                        swap(i, store++);
+                    }
+                }
+                swap(store, to - 1);
+                // recurse into the smaller part to bound the stack
+                if (store - from < to - store - 1) {
+                    sort(from, store);
+                    from = store + 1;
+                } else {
+                    sort(store + 1, to);
+                    to = store;
+                }
+            }
+            for (int i = from + 1; i < to; ++i) {
+                for (int j = i; j > from && compare(j - 1, j) > 0; --j) {
+                    swap(j - 1, j);
+                }
+            }
+        }
+
+        private int compare(int i, int j) {
+            return ExternalArranger.compare(hi[i], lo[i], file[i], offset[i], hi[j], lo[j], file[j], offset[j]);
+        }
+
+        private void swap(int i, int j) {
+            final long h = hi[i];
+            hi[i] = hi[j];
+            hi[j] = h;
+            final long l = lo[i];
+            lo[i] = lo[j];
+            lo[j] = l;
+            final int f = file[i];
+            file[i] = file[j];
+            file[j] = f;
+            final long o = offset[i];
+            offset[i] = offset[j];
+            offset[j] = o;
+            final int len = length[i];
+            length[i] = length[j];
+            length[j] = len;
+        }
+    }
+
+    /**
+     * Sequential reader of a spill file positioned at its current record.
+     */
+    private static class SpillReader implements Comparable<SpillReader> {
+        final DataInputStream in;
+        long hi;
+        long lo;
+        int file;
+        long offset;
+        int length;
+
+        SpillReader(Path spill, int bufferSize) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spill), bufferSize));
+        }
+
+        boolean next() throws IOException {
+            try {
+                hi = in.readLong();
+            } catch (EOFException e) {
+                in.close();
+                return false;
+            }
+            lo = in.readLong();
+            file = in.readInt();
+            offset = in.readLong();
+            length = in.readInt();
+            return true;
+        }
+
+        @Override
+        public int compareTo(SpillReader o) {
+            return compare(hi, lo, file, offset, o.hi, o.lo, o.file, o.offset);
+        }
+    }
+
+    private static int compare(long hi1, long lo1, int file1, long offset1, long hi2, long lo2, int file2, long offset2) {
+        int c = Long.compare(hi1, hi2);
+        if (c != 0) {
+            return c;
+        }
+        c = Long.compare(lo1, lo2);
+        if (c != 0) {
+            return c;
+        }
+        c = Integer.compare(file1, file2);
+        return c != 0 ? c : Long.compare(offset1, offset2);
+    }
+
+    private final Path workDir;
+    private final long memoryBudget;
+    private final int fanIn;
+
+    /**
+     * @param workDir  directory for the temporary files
+     * @param memoryBudget  number of bytes of the line records buffered in memory before they are spilled
+     */
+    public ExternalArranger(Path workDir, long memoryBudget) {
+        this(workDir, memoryBudget, DEFAULT_FAN_IN);
+    }
+
+    /**
+     * @param fanIn  maximum number of the spill files merged at once, at least 2
+     */
+    ExternalArranger(Path workDir, long memoryBudget, int fanIn) {
+        this.workDir = workDir;
+        this.memoryBudget = memoryBudget;
+        this.fanIn = fanIn;
+    }
+
+    /**
+     * Arranges the op logs into the output file, the groups are named after the file names.
+     * The signatures of the lines, which are bounded by the hierarchy rather than
+     * by the number of lines, are expected to fit in memory.
+     *
+     * @return  the output file opened with the dictionary
+     */
+    public ArrangedFile arrange(Path output, LineDictionary dictionary, Path... files) throws IOException {
+        Files.createDirectories(workDir);
+        final List<Path> spills = new ArrayList<>();
+        Path lineFile = null;
+        try {
+            spill(files, spills);
+            reduce(spills);
+            if (dictionary.isCanonical()) {
+                canonicalize(files, spills);
+                reduce(spills);
+            }
+            lineFile = Files.createTempFile(workDir, "lines", ".tmp");
+            final List<Partition> partitions = merge(spills, lineFile);
+            for (Path spill : spills) {
+                Files.delete(spill);
+            }
+            spills.clear();
+            final Record[] records = arrange(files, partitions);
+            write(output, files, partitions, records, lineFile);
+        } finally {
+            for (Path spill : spills) {
+                Files.deleteIfExists(spill);
+            }
+            if (lineFile != null) {
+                Files.deleteIfExists(lineFile);
+            }
+        }
+        return ArrangedFile.open(output, dictionary);
+    }
+
+    private void spill(Path[] files, List<Path> spills) throws IOException {
+        final SortBuffer buffer = sortBuffer();
+        final long[] key = new long[2];
+        for (int i = 0; i < files.length; ++i) {
+            final int file = i;
+            OpLogReader.scan(files[i], WINDOW, (buf, offset, length, position) -> {
+                LineHash.hash(buf, offset, length, key);
+                buffer.add(key[0], key[1], file, position, length);
+                if (buffer.isFull()) {
+                    spills.add(spill(buffer));
+                }
+            });
+        }
+        if (buffer.size > 0 || spills.isEmpty()) {
+            spills.add(spill(buffer));
+        }
+    }
+
+    /**
+     * Replaces the spill files keyed by the hashes of the line texts with spill files keyed by the hashes
+     * of the canonical op forms. The canonical form is computed once per distinct line text and only the first
+     * occurrence of a text in every file is kept. The list holds all the spill files present at any moment.
+     */
+    private void canonicalize(Path[] files, List<Path> spills) throws IOException {
+        final List<Path> raw = new ArrayList<>(spills);
+        final SortBuffer buffer = sortBuffer();
+        final FileChannel[] channels = new FileChannel[files.length];
+        final PriorityQueue<SpillReader> queue = open(raw);
+        try {
+            for (int i = 0; i < files.length; ++i) {
+                channels[i] = FileChannel.open(files[i], StandardOpenOption.READ);
+            }
+            final long[] key = new long[2];
+            while (!queue.isEmpty()) {
+                SpillReader reader = queue.poll();
+                final long hi = reader.hi;
+                final long lo = reader.lo;
+                LineDictionary.canonicalHash(readLine(channels[reader.file], reader.offset, reader.length), key);
+                int lastFile = -1;
+                while (true) {
+                    if (reader.file != lastFile) {
+                        lastFile = reader.file;
+                        buffer.add(key[0], key[1], reader.file, reader.offset, reader.length);
+                        if (buffer.isFull()) {
+                            spills.add(spill(buffer));
+                        }
+                    }
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                    if (queue.isEmpty() || queue.peek().hi != hi || queue.peek().lo != lo) {
+                        break;
+                    }
+                    reader = queue.poll();
+                }
+            }
+        } finally {
+            close(queue);
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+        if (buffer.size > 0 || spills.size() == raw.size()) {
+            spills.add(spill(buffer));
+        }
+        for (Path spill : raw) {
+            Files.delete(spill);
+        }
+        spills.subList(0, raw.size()).clear();
+    }
+
+    private static String readLine(FileChannel channel, long offset, int length) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, offset + bytes.position()) < 0) {
+                throw new EOFException("Line at " + offset + " is past the end of the file");
+            }
+        }
+        bytes.flip();
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private SortBuffer sortBuffer() {
+        return new SortBuffer((int) Math.max(1024, Math.min(Integer.MAX_VALUE - 8, memoryBudget / RECORD)));
+    }
+
+    private Path spill(SortBuffer buffer) throws IOException {
+        final Path spill = Files.createTempFile(workDir, "spill", ".tmp");
+        buffer.spill(spill);
+        return spill;
+    }
+
+    /**
+     * Merges batches of the spill files into new spill files until at most the fan-in of them are left.
+     * The list holds all the spill files present at any moment, so they are deleted on failure.
+     */
+    private void reduce(List<Path> spills) throws IOException {
+        while (spills.size() > fanIn) {
+            final List<Path> batch = new ArrayList<>(spills.subList(0, fanIn));
+            final Path merged = Files.createTempFile(workDir, "spill", ".tmp");
+            spills.add(merged);
+            final PriorityQueue<SpillReader> queue = open(batch);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(merged), IO_BUFFER))) {
+                while (!queue.isEmpty()) {
+                    final SpillReader reader = queue.poll();
+                    out.writeLong(reader.hi);
+                    out.writeLong(reader.lo);
+                    out.writeInt(reader.file);
+                    out.writeLong(reader.offset);
+                    out.writeInt(reader.length);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+            } finally {
+                close(queue);
+            }
+            for (Path spill : batch) {
+                Files.delete(spill);
+            }
+            spills.subList(0, fanIn).clear();
+        }
+    }
+
+    /**
+     * Opens the readers of the spill files positioned at their first records,
+     * the read buffers take at most {@link #IO_BUFFER} bytes per file.
+     */
+    private PriorityQueue<SpillReader> open(List<Path> spills) throws IOException {
+        final int bufferSize = (int) Math.max(4096, Math.min(IO_BUFFER, memoryBudget / spills.size()));
+        final PriorityQueue<SpillReader> queue = new PriorityQueue<>(spills.size());
+        try {
+            for (Path spill : spills) {
+                final SpillReader reader = new SpillReader(spill, bufferSize);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close(queue);
+            throw e;
+        }
+        return queue;
+    }
+
+    private static void close(PriorityQueue<SpillReader> queue) throws IOException {
+        for (SpillReader reader : queue) {
+            reader.in.close();
+        }
+    }
+
+    /**
+     * Merges the spill files writing the partition id, file index, offset and length
+     * of every distinct line to the line file.
+     */
+    private List<Partition> merge(List<Path> spills, Path lineFile) throws IOException {
+        final Map<BitSet, Partition> partitions = new HashMap<>();
+        final List<Partition> partitionList = new ArrayList<>();
+        final PriorityQueue<SpillReader> queue = open(spills);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(lineFile), IO_BUFFER))) {
+            final BitSet signature = new BitSet();
+            while (!queue.isEmpty()) {
+                // the first record of a key is the line found first in the order of the files
+                SpillReader reader = queue.poll();
+                final long hi = reader.hi;
+                final long lo = reader.lo;
+                final int file = reader.file;
+                final long offset = reader.offset;
+                final int length = reader.length;
+                signature.clear();
+                while (true) {
+                    signature.set(reader.file);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                    if (queue.isEmpty() || queue.peek().hi != hi || queue.peek().lo != lo) {
+                        break;
+                    }
+                    reader = queue.poll();
+                }
+                Partition partition = partitions.get(signature);
+                if (partition == null) {
+                    partition = new Partition(partitionList.size(), (BitSet) signature.clone());
+                    partitions.put(partition.signature, partition);
+                    partitionList.add(partition);
+                }
+                partition.add(hi, lo, length);
+                out.writeInt(partition.id);
+                out.writeInt(file);
+                out.writeLong(offset);
+                out.writeInt(length);
+            }
+        } finally {
+            close(queue);
+        }
+        return partitionList;
+    }
+
+    /**
+     * Derives the arranged groups from the signatures following {@link Util#arrange(LineGroup...)}.
+     */
+    private static Record[] arrange(Path[] files, List<Partition> partitions) {
+        if (files.length == 0) {
+            return new Record[0];
+        }
+
+        // order the groups by size, the signatures are remapped to the sorted indexes
+        final int[] fileSizes = new int[files.length];
+        for (Partition partition : partitions) {
+            final BitSet signature = partition.signature;
+            for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1)) {
+                fileSizes[i] += partition.lines;
+            }
+        }
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (o1, o2) -> fileSizes[o2] - fileSizes[o1]);
+        final int[] indexes = new int[files.length];
+        final String[] names = new String[files.length];
+        final int[] sizes = new int[files.length];
+        for (int i = 0; i < order.length; ++i) {
+            indexes[order[i]] = i;
+            names[i] = files[order[i]].getFileName().toString();
+            sizes[i] = fileSizes[order[i]];
+        }
+        for (Partition partition : partitions) {
+            final BitSet signature = new BitSet(files.length);
+            for (int i = partition.signature.nextSetBit(0); i >= 0; i = partition.signature.nextSetBit(i + 1)) {
+                signature.set(indexes[i]);
+            }
+            partition.signature = signature;
+        }
+
+        // a group includes another if it is in the closure of the other one,
+        // groups intersect if they share a signature
+        final BitSet[] originalClosures = new BitSet[files.length];
+        final BitSet[] intersecting = new BitSet[files.length];
+        for (Partition partition : partitions) {
+            final BitSet signature = partition.signature;
+            for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1)) {
+                if (originalClosures[i] == null) {
+                    originalClosures[i] = (BitSet) signature.clone();
+                    intersecting[i] = (BitSet) signature.clone();
+                } else {
+                    originalClosures[i].and(signature);
+                    intersecting[i].or(signature);
+                }
+            }
+        }
+        final List<List<String>> contained = new ArrayList<>(files.length);
+        final BitSet[] containedIndexes = new BitSet[files.length];
+        for (int i = 0; i < files.length; ++i) {
+            final List<String> nested = new ArrayList<>();
+            final BitSet nestedIndexes = new BitSet();
+            for (int j = i + 1; j < files.length; ++j) {
+                if (sizes[j] > 0 && (!originalClosures[j].get(i) || intersecting[j].intersects(nestedIndexes))) {
+                    continue;
+                }
+                nested.add(names[j]);
+                nestedIndexes.set(j);
+            }
+            contained.add(nested);
+            containedIndexes[i] = nestedIndexes;
+        }
+        final Set<String> uniqueNames = new HashSet<>();
+        for (String name : names) {
+            if (!uniqueNames.add(name)) {
+                throw new IllegalStateException("Duplicate group name " + name);
+            }
+        }
+
+        // a line stays in the groups that don't nest other groups containing the line
+        final Map<BitSet, Partition> nodes = new HashMap<>();
+        for (Partition partition : partitions) {
+            final BitSet signature = (BitSet) partition.signature.clone();
+            for (int i = partition.signature.nextSetBit(0); i >= 0; i = partition.signature.nextSetBit(i + 1)) {
+                if (containedIndexes[i].intersects(partition.signature)) {
+                    signature.clear(i);
+                }
+            }
+            Partition node = nodes.get(signature);
+            if (node == null) {
+                node = new Partition(-1, signature);
+                nodes.put(signature, node);
+            }
+            node.add(partition);
+            partition.node = node;
+        }
+
+        final BitSet[] closures = new BitSet[files.length];
+        for (BitSet signature : nodes.keySet()) {
+            for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1)) {
+                if (closures[i] == null) {
+                    closures[i] = (BitSet) signature.clone();
+                } else {
+                    closures[i].and(signature);
+                }
+            }
+        }
+        for (BitSet closure : closures) {
+            if (closure != null && !nodes.containsKey(closure)) {
+                nodes.put(closure, new Partition(-1, closure));
+            }
+        }
+
+        final Map<BitSet, String> owners = new HashMap<>(nodes.size());
+        final Map<String, Integer> originals = new HashMap<>(files.length);
+        for (int i = 0; i < files.length; ++i) {
+            originals.put(names[i], i);
+            final BitSet closure = closures[i];
+            if (closure == null || closure.cardinality() > 1 && !contained.get(i).isEmpty()) {
+                continue;
+            }
+            final String previous = owners.put(closure, names[i]);
+            if (previous != null) {
+                throw new IllegalStateException("Groups " + previous + " and " + names[i] + " appear to be identical");
+            }
+        }
+
+        final BitSet[] signatures = nodes.keySet().toArray(new BitSet[nodes.size()]);
+        Arrays.sort(signatures, Util::compareSignatures);
+        final Map<BitSet, String> nodeNames = new HashMap<>(signatures.length);
+        final Map<BitSet, Collection<String>> nodeNested = new HashMap<>(signatures.length);
+        for (int i = signatures.length - 1; i >= 0; --i) {
+            final BitSet signature = signatures[i];
+            final Collection<String> nested = new HashSet<>();
+            for (BitSet nestedSignature : Util.nestedSignatures(signatures, i)) {
+                nested.add(nodeNames.get(nestedSignature));
+            }
+            String name = owners.get(signature);
+            if (name == null) {
+                final Partition node = nodes.get(signature);
+                name = LineGroup.toHex(LineGroup.digest(node.lines, node.keyHi, node.keyLo, nested));
+            } else {
+                nested.addAll(contained.get(originals.get(name)));
+            }
+            nodeNames.put(signature, name);
+            nodeNested.put(signature, nested);
+        }
+
+        final Map<String, Record> records = new LinkedHashMap<>(files.length + signatures.length);
+        for (int i = 0; i < files.length; ++i) {
+            final BitSet closure = closures[i];
+            if (closure == null) {
+                records.put(names[i], new Record(names[i], null, contained.get(i)));
+            } else if (names[i].equals(owners.get(closure))) {
+                records.put(names[i], new Record(names[i], nodes.get(closure), nodeNested.get(closure)));
+            } else {
+                final List<String> nested = new ArrayList<>(contained.get(i).size() + 1);
+                nested.add(nodeNames.get(closure));
+                nested.addAll(contained.get(i));
+                records.put(names[i], new Record(names[i], null, nested));
+            }
+        }
+        for (BitSet signature : signatures) {
+            final String name = nodeNames.get(signature);
+            final Record present = records.get(name);
+            if (present == null) {
+                records.put(name, new Record(name, nodes.get(signature), nodeNested.get(signature)));
+            } else if (present.lines != nodes.get(signature) && (present.lines != null && present.lines.lines > 0
+                    || nodes.get(signature).lines > 0
+                    || !new HashSet<>(present.nested).equals(new HashSet<>(nodeNested.get(signature))))) {
+                // the lines of different signatures never overlap, so only empty groups can be the same
+                throw new IllegalStateException("Groups with different content are both named " + name);
+            }
+        }
+        return records.values().toArray(new Record[records.size()]);
+    }
+
+    /**
+     * Writes the records in the {@link ArrangedFile} format, the lines of every group are stored together.
+     */
+    private static void write(Path output, Path[] files, List<Partition> partitions, Record[] records, Path lineFile)
+            throws IOException {
+        final Map<String, Integer> recordIndexes = new HashMap<>(records.length);
+        final byte[][] names = new byte[records.length][];
+        int lineCount = 0;
+        long lineBytes = 0;
+        for (int i = 0; i < records.length; ++i) {
+            recordIndexes.put(records[i].name, i);
+            names[i] = records[i].name.getBytes(StandardCharsets.UTF_8);
+            if (records[i].lines != null) {
+                lineCount += records[i].lines.lines;
+                lineBytes += records[i].lines.bytes;
+            }
+        }
+        final long linesStart = ArrangedFile.HEADER + 4L * records.length + 4L * (lineCount + 1);
+        int line = 0;
+        long offset = linesStart;
+        for (Record record : records) {
+            if (record.lines != null) {
+                record.lines.nextLine = line;
+                record.lines.nextByte = offset;
+                line += record.lines.lines;
+                offset += record.lines.bytes;
+            }
+        }
+        final int[] groupOffsets = new int[records.length];
+        for (int i = 0; i < records.length; ++i) {
+            groupOffsets[i] = checkOffset(offset);
+            offset += 12 + names[i].length + 4L * (records[i].lines == null ? 0 : records[i].lines.lines)
+                    + 4L * records[i].nested.size();
+        }
+        final int size = checkOffset(offset);
+
+        final FileChannel[] sources = new FileChannel[files.length];
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(ArrangedFile.MAGIC);
+            buf.putInt(ArrangedFile.VERSION);
+            buf.putInt(lineCount);
+            buf.putInt(records.length);
+            for (int groupOffset : groupOffsets) {
+                buf.putInt(groupOffset);
+            }
+            buf.putInt(ArrangedFile.HEADER + 4 * records.length + 4 * lineCount, (int) (linesStart + lineBytes));
+
+            // copy the lines to the positions of their groups
+            for (int i = 0; i < files.length; ++i) {
+                sources[i] = FileChannel.open(files[i], StandardOpenOption.READ);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(1024);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(lineFile), IO_BUFFER))) {
+                for (int l = 0; l < lineCount; ++l) {
+                    final Partition node = partitions.get(in.readInt()).node;
+                    final int file = in.readInt();
+                    final long position = in.readLong();
+                    final int length = in.readInt();
+                    if (bytes.capacity() < length) {
+                        bytes = ByteBuffer.allocate(Math.max(length, bytes.capacity() << 1));
+                    }
+                    bytes.clear().limit(length);
+                    while (bytes.hasRemaining()) {
+                        if (sources[file].read(bytes, position + bytes.position()) < 0) {
+                            throw new IllegalStateException(files[file] + " changed while it was arranged");
+                        }
+                    }
+                    bytes.flip();
+                    buf.putInt(ArrangedFile.HEADER + 4 * records.length + 4 * node.nextLine, (int) node.nextByte);
+                    buf.position((int) node.nextByte);
+                    buf.put(bytes);
+                    ++node.nextLine;
+                    node.nextByte += length;
+                }
+            }
+
+            buf.position((int) (linesStart + lineBytes));
+            for (int i = 0; i < records.length; ++i) {
+                final Record record = records[i];
+                buf.putInt(names[i].length);
+                buf.put(names[i]);
+                if (record.lines == null) {
+                    buf.putInt(0);
+                } else {
+                    buf.putInt(record.lines.lines);
+                    for (int l = record.lines.nextLine - record.lines.lines; l < record.lines.nextLine; ++l) {
+                        buf.putInt(l);
+                    }
+                }
+                buf.putInt(record.nested.size());
+                for (String nested : record.nested) {
+                    buf.putInt(recordIndexes.get(nested));
+                }
+            }
+            buf.force();
+        } finally {
+            for (FileChannel source : sources) {
+                if (source != null) {
+                    source.close();
+                }
+            }
+        }
+    }
+
+    private static int checkOffset(long offset) {
+        if (offset > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Arranged groups exceed " + Integer.MAX_VALUE + " bytes");
+        }
+        return (int) offset;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Line ids of a group as a bitset over the dictionary index along with
+ * a cardinality and min-hash summary used to reject containment checks early.
+ *
+ * Removing lines keeps the cardinality exact but leaves the min-hashes as they
+ * were, they stay lower bounds of the actual ones and the prefilter remains valid
+ * for this instance as the superset.
+ *
+ * @author Alexey Loubyansky
+ */
+class GroupBits {
+
+    private static final int MIN_HASHES = 4;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final long[] words;
+    private final int[] minHashes = new int[MIN_HASHES];
+    private int cardinality;
+
+    GroupBits(int[] lines, int linesTotal) {
+        words = new long[(linesTotal + 63) >>> 6];
+        for (int line : lines) {
+            words[line >>> 6] |= 1L << line;
+        }
+        summarize();
+    }
+
+    GroupBits(GroupBits other) {
+        words = other.words.clone();
+        System.arraycopy(other.minHashes, 0, minHashes, 0, MIN_HASHES);
+        cardinality = other.cardinality;
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Checks whether all the bits of the argument are also set in this instance.
+     */
+    boolean includes(GroupBits other) {
+        if (other.cardinality > cardinality) {
+            return false;
+        }
+        for (int i = 0; i < MIN_HASHES; ++i) {
+            // the minimum over a superset can't be greater than the minimum over its subset
+            if (Integer.compareUnsigned(minHashes[i], other.minHashes[i]) > 0) {
+                return false;
+            }
+        }
+        for (int i = 0; i < other.words.length; ++i) {
+            if ((other.words[i] & ~words[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clears the bits set in the argument.
+     */
+    void remove(GroupBits other) {
+        for (int i = 0; i < other.words.length; ++i) {
+            cardinality -= Long.bitCount(words[i] & other.words[i]);
+            words[i] &= ~other.words[i];
+        }
+    }
+
+    BitSet toBitSet() {
+        return BitSet.valueOf(words);
+    }
+
+    private void summarize() {
+        cardinality = 0;
+        Arrays.fill(minHashes, -1);
+        for (int i = 0; i < words.length; ++i) {
+            long word = words[i];
+            cardinality += Long.bitCount(word);
+            while (word != 0) {
+                final int line = (i << 6) + Long.numberOfTrailingZeros(word);
+                for (int h = 0; h < MIN_HASHES; ++h) {
+                    final int hash = hash(line, SEEDS[h]);
+                    if (Integer.compareUnsigned(hash, minHashes[h]) < 0) {
+                        minHashes[h] = hash;
+                    }
+                }
+                word &= word - 1;
+            }
+        }
+    }
+
+    static int hash(int line, long seed) {
+        long h = (line + seed) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 31)) * 0x94D049BB133111EBL;
+        return (int) (h ^ (h >>> 32));
+    }
+}
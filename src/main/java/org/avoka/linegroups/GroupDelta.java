@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lines and nested groups to add and remove to turn one arranged group into another,
+ * see {@link GroupResolver#getDelta(String, String)}.
+ *
+ * @author Alexey Loubyansky
+ */
+public class GroupDelta {
+
+    private final String from;
+    private final String to;
+    private final LineDictionary dictionary;
+    private final List<String> addedGroups;
+    private final List<String> removedGroups;
+    private final int[] added;
+    private final int[] removed;
+
+    GroupDelta(String from, String to, LineDictionary dictionary, List<String> addedGroups, List<String> removedGroups,
+            int[] added, int[] removed) {
+        this.from = from;
+        this.to = to;
+        this.dictionary = dictionary;
+        this.addedGroups = Collections.unmodifiableList(addedGroups);
+        this.removedGroups = Collections.unmodifiableList(removedGroups);
+        this.added = added;
+        this.removed = removed;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public boolean isEmpty() {
+        return added.length == 0 && removed.length == 0;
+    }
+
+    /**
+     * @return  the biggest groups nested in the target whose lines are all missing in the source
+     */
+    public List<String> getAddedGroups() {
+        return addedGroups;
+    }
+
+    /**
+     * @return  the biggest groups nested in the source whose lines are all missing in the target
+     */
+    public List<String> getRemovedGroups() {
+        return removedGroups;
+    }
+
+    /**
+     * @return  sorted ids of the lines of the target missing in the source
+     */
+    public int[] getAddedLineIds() {
+        return added.clone();
+    }
+
+    /**
+     * @return  sorted ids of the lines of the source missing in the target
+     */
+    public int[] getRemovedLineIds() {
+        return removed.clone();
+    }
+
+    public List<String> getAddedLines() {
+        return lines(added);
+    }
+
+    public List<String> getRemovedLines() {
+        return lines(removed);
+    }
+
+    private List<String> lines(int[] ids) {
+        final List<String> lines = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            lines.add(dictionary.getLine(id));
+        }
+        return lines;
+    }
+}
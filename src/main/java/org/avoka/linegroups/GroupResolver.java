@@ -0,0 +1,404 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Resolves the transitive lines and nested groups of arranged groups.
+ *
+ * The arranged groups form a DAG in which shared groups are nested by many others,
+ * so the lines and the nested group closure of every group are computed once
+ * as bitsets over the line ids and the group indexes and reused by all the groups
+ * nesting it. Resolving all the groups is then linear in the size of the arrangement
+ * rather than in the number of paths.
+ *
+ * The price is memory: every group keeps the bitset of its transitive lines, sized by
+ * the highest line id it reaches, and the bitset of its nested groups, so resolving all
+ * the groups of an arrangement takes up to groups * (lines + groups) bits, about 110 MB
+ * for 10000 groups over a dictionary of 80000 lines. The resolver should therefore be
+ * dropped as soon as the queries are done.
+ *
+ * The closures also serve as the ancestor index of delta queries between groups.
+ * A nested group reachable from both groups is skipped with all of its subtree,
+ * only the lines of the groups reachable from just one of them are visited.
+ *
+ * @author Alexey Loubyansky
+ */
+public class GroupResolver {
+
+    private final Map<String, LineGroup> groups;
+    private final String[] names;
+    private final Map<String, Integer> indexes;
+    private final BitSet[] lines;
+    private final BitSet[] closures;
+    /** nested trees as pairs of the group index and the depth, see {@link #getNestedTree(String)} */
+    private final int[][] trees;
+    /** groups whose resolution is in progress, used to detect cycles */
+    private final BitSet visiting = new BitSet();
+    /** whether some line belongs to more than one group, null if not known yet */
+    private Boolean sharedLines;
+
+    public GroupResolver(Map<String, LineGroup> groups) {
+        this.groups = groups;
+        names = groups.keySet().toArray(new String[groups.size()]);
+        indexes = new HashMap<>(names.length);
+        for (int i = 0; i < names.length; ++i) {
+            indexes.put(names[i], i);
+        }
+        lines = new BitSet[names.length];
+        closures = new BitSet[names.length];
+        trees = new int[names.length][];
+    }
+
+    /**
+     * @return  sorted ids of the lines of the group and all the groups nested in it
+     */
+    public synchronized int[] getLineIds(String name) {
+        return lines(index(name)).stream().toArray();
+    }
+
+    /**
+     * @return  lines of the group and all the groups nested in it
+     */
+    public Set<String> getLines(String name) {
+        final LineDictionary dictionary = groups.get(name).getDictionary();
+        final int[] ids = getLineIds(name);
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    int i;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < ids.length;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (i == ids.length) {
+                            throw new NoSuchElementException();
+                        }
+                        return dictionary.getLine(ids[i++]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+
+    /**
+     * @return  names of the groups nested in the group directly or through other groups
+     */
+    public synchronized Set<String> getNestedClosure(String name) {
+        final BitSet closure = closure(index(name));
+        final Set<String> nested = new LinkedHashSet<>(closure.cardinality());
+        for (int i = closure.nextSetBit(0); i >= 0; i = closure.nextSetBit(i + 1)) {
+            nested.add(names[i]);
+        }
+        return nested;
+    }
+
+    /**
+     * Lists the groups nested in the group as a tree: the directly nested groups sorted by name,
+     * each followed by the tree of the groups nested in it in their order with the names indented
+     * by two spaces per level. The tree of a shared group is walked once and copied into the trees
+     * of the groups nesting it, though the listing itself still has an entry per path.
+     */
+    public synchronized List<String> getNestedTree(String name) {
+        final int index = index(name);
+        // validates the nesting
+        closure(index);
+        final List<String> nested = new ArrayList<>(groups.get(name).getNestedGroupNames());
+        Collections.sort(nested);
+        final List<String> tree = new ArrayList<>();
+        final StringBuilder buf = new StringBuilder();
+        for (String nestedName : nested) {
+            tree.add(nestedName);
+            final int[] subtree = tree(indexes.get(nestedName));
+            for (int i = 0; i < subtree.length; i += 2) {
+                buf.setLength(0);
+                for (int depth = 0; depth <= subtree[i + 1]; ++depth) {
+                    buf.append("  ");
+                }
+                tree.add(buf.append(names[subtree[i]]).toString());
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Flattens the group into a group of the same name with all of its transitive lines
+     * and no nested groups, which for an original group reconstructs its input.
+     */
+    public LineGroup resolve(String name) {
+        final LineGroup group = groups.get(name);
+        final LineGroup.Builder builder = LineGroup.builder(name, group.getDictionary());
+        synchronized (this) {
+            builder.setLines((BitSet) lines(index(name)).clone());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Computes the lines and nested groups to add to the first group and remove from it
+     * to turn it into the second one. The time is proportional to the number of groups
+     * reachable from just one of them and their lines.
+     */
+    public synchronized GroupDelta getDelta(String from, String to) {
+        final int fromIndex = index(from);
+        final int toIndex = index(to);
+        final BitSet fromReach = reach(fromIndex);
+        final BitSet toReach = reach(toIndex);
+        final BitSet addedNodes = (BitSet) toReach.clone();
+        addedNodes.andNot(fromReach);
+        final BitSet removedNodes = (BitSet) fromReach.clone();
+        removedNodes.andNot(toReach);
+        final BitSet added = deltaLines(addedNodes, fromIndex);
+        final BitSet removed = deltaLines(removedNodes, toIndex);
+        final LineDictionary dictionary = groups.get(from).getDictionary();
+        return new GroupDelta(from, to, dictionary, topGroups(addedNodes, added), topGroups(removedNodes, removed),
+                added.stream().toArray(), removed.stream().toArray());
+    }
+
+    /**
+     * @return  the group along with all the groups nested in it
+     */
+    private BitSet reach(int index) {
+        final BitSet reach = (BitSet) closure(index).clone();
+        reach.set(index);
+        return reach;
+    }
+
+    /**
+     * Selects the groups whose whole subtree consists of the nodes with only the delta lines
+     * and that aren't nested in another such group.
+     */
+    private List<String> topGroups(BitSet nodes, BitSet delta) {
+        BitSet clean = nodes;
+        if (hasSharedLines()) {
+            clean = new BitSet();
+            for (int i = nodes.nextSetBit(0); i >= 0; i = nodes.nextSetBit(i + 1)) {
+                boolean onlyDelta = true;
+                for (int line : groups.get(names[i]).lineIds()) {
+                    if (!delta.get(line)) {
+                        onlyDelta = false;
+                        break;
+                    }
+                }
+                if (onlyDelta) {
+                    clean.set(i);
+                }
+            }
+        }
+        final BitSet whole = new BitSet();
+        for (int i = clean.nextSetBit(0); i >= 0; i = clean.nextSetBit(i + 1)) {
+            final BitSet subtree = (BitSet) closure(i).clone();
+            subtree.andNot(clean);
+            if (subtree.isEmpty()) {
+                whole.set(i);
+            }
+        }
+        final BitSet nested = new BitSet();
+        for (int i = whole.nextSetBit(0); i >= 0; i = whole.nextSetBit(i + 1)) {
+            nested.or(closure(i));
+        }
+        whole.andNot(nested);
+        final List<String> top = new ArrayList<>(whole.cardinality());
+        for (int i = whole.nextSetBit(0); i >= 0; i = whole.nextSetBit(i + 1)) {
+            top.add(names[i]);
+        }
+        Collections.sort(top);
+        return top;
+    }
+
+    /**
+     * Collects the own lines of the nodes that the other group doesn't have.
+     */
+    private BitSet deltaLines(BitSet nodes, int other) {
+        final BitSet delta = new BitSet();
+        for (int i = nodes.nextSetBit(0); i >= 0; i = nodes.nextSetBit(i + 1)) {
+            for (int line : groups.get(names[i]).lineIds()) {
+                delta.set(line);
+            }
+        }
+        if (hasSharedLines()) {
+            // a line of a node the other group doesn't reach may still be in one it reaches
+            delta.andNot(lines(other));
+        }
+        return delta;
+    }
+
+    private boolean hasSharedLines() {
+        if (sharedLines == null) {
+            final BitSet seen = new BitSet();
+            sharedLines = false;
+            for (LineGroup group : groups.values()) {
+                for (int line : group.lineIds()) {
+                    if (seen.get(line)) {
+                        sharedLines = true;
+                        return true;
+                    }
+                    seen.set(line);
+                }
+            }
+        }
+        return sharedLines;
+    }
+
+    private int index(String name) {
+        final Integer index = indexes.get(name);
+        if (index == null) {
+            throw new IllegalStateException("Unknown group " + name);
+        }
+        return index;
+    }
+
+    private BitSet lines(int index) {
+        if (lines[index] == null) {
+            resolve(index);
+        }
+        return lines[index];
+    }
+
+    private BitSet closure(int index) {
+        if (closures[index] == null) {
+            resolve(index);
+        }
+        return closures[index];
+    }
+
+    private int[] tree(int index) {
+        if (trees[index] == null) {
+            walk(index, i -> trees[i] != null, this::buildTree);
+        }
+        return trees[index];
+    }
+
+    /**
+     * Lists the nested trees of the nested groups, which are already built, after their names.
+     */
+    private void buildTree(int index) {
+        final LineGroup group = groups.get(names[index]);
+        int size = 0;
+        for (String nestedName : group.getNestedGroupNames()) {
+            size += 2 + trees[indexes.get(nestedName)].length;
+        }
+        final int[] tree = new int[size];
+        int i = 0;
+        for (String nestedName : group.getNestedGroupNames()) {
+            final int nested = indexes.get(nestedName);
+            tree[i++] = nested;
+            tree[i++] = 0;
+            final int[] subtree = trees[nested];
+            for (int j = 0; j < subtree.length; j += 2) {
+                tree[i++] = subtree[j];
+                tree[i++] = subtree[j + 1] + 1;
+            }
+        }
+        trees[index] = tree;
+    }
+
+    private void resolve(int index) {
+        walk(index, i -> lines[i] != null, this::resolveLines);
+    }
+
+    /**
+     * Collects the lines and the closure of the group from those of the nested groups, which are already resolved.
+     */
+    private void resolveLines(int index) {
+        final LineGroup group = groups.get(names[index]);
+        final BitSet groupLines = new BitSet();
+        for (int line : group.lineIds()) {
+            groupLines.set(line);
+        }
+        final BitSet closure = new BitSet();
+        for (String nestedName : group.getNestedGroupNames()) {
+            final int nested = indexes.get(nestedName);
+            if (closure.get(nested)) {
+                // already reached through another nested group
+                continue;
+            }
+            closure.set(nested);
+            closure.or(closures[nested]);
+            groupLines.or(lines[nested]);
+        }
+        lines[index] = groupLines;
+        closures[index] = closure;
+    }
+
+    /**
+     * Visits the group and the groups nested in it that aren't done yet, the nested groups first.
+     * The nesting is walked with an explicit stack, so its depth is bounded only by the heap.
+     */
+    private void walk(int root, IntPredicate done, IntConsumer visitor) {
+        final Deque<Integer> path = new ArrayDeque<>();
+        final Deque<Iterator<String>> nestedNames = new ArrayDeque<>();
+        visiting.set(root);
+        path.push(root);
+        nestedNames.push(groups.get(names[root]).getNestedGroupNames().iterator());
+        try {
+            while (!path.isEmpty()) {
+                final Iterator<String> nestedName = nestedNames.peek();
+                if (!nestedName.hasNext()) {
+                    final int index = path.pop();
+                    nestedNames.pop();
+                    visiting.clear(index);
+                    visitor.accept(index);
+                    continue;
+                }
+                final String name = nestedName.next();
+                final Integer nested = indexes.get(name);
+                if (nested == null) {
+                    throw new IllegalStateException("Group " + names[path.peek()] + " includes unknown group " + name);
+                }
+                if (done.test(nested)) {
+                    continue;
+                }
+                if (visiting.get(nested)) {
+                    throw new IllegalStateException("Group " + names[nested] + " is nested in itself");
+                }
+                visiting.set(nested);
+                path.push(nested);
+                nestedNames.push(groups.get(name).getNestedGroupNames().iterator());
+            }
+        } finally {
+            for (int index : path) {
+                visiting.clear(index);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Listener committing JFR events, so that the phases can be inspected in a flight recording
+ * of a production run. It requires a JVM with the jdk.jfr module and should be obtained
+ * with {@link ArrangeListener#jfr()}, which falls back to no events on a JVM without it.
+ * Compiling it requires the jdk.jfr API, i.e. a JDK 11+ or 8u262+, not the --release 8 API.
+ *
+ * The phase and level events begin when the work starts on the thread reporting it,
+ * so they line up with the GC and CPU samples of the recording. The inputs are read concurrently
+ * and interned in order, their events are committed when they are interned and the time
+ * of the work is recorded in the elapsed field.
+ *
+ * @author Alexey Loubyansky
+ */
+public class JfrArrangeListener implements ArrangeListener {
+
+    @Name("org.avoka.linegroups.InputRead")
+    @Label("Input Read")
+    @Category("Line Groups")
+    static class InputReadEvent extends Event {
+        @Label("Group")
+        String group;
+        @Label("Size")
+        @DataAmount
+        long bytes;
+        @Label("Lines")
+        int lines;
+        @Label("Distinct Lines")
+        int distinctLines;
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("org.avoka.linegroups.Phase")
+    @Label("Arrange Phase")
+    @Category("Line Groups")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("org.avoka.linegroups.ContainmentNested")
+    @Label("Containment Nested")
+    @Description("An original group copied to nest the original groups it includes")
+    @Category("Line Groups")
+    static class ContainmentEvent extends Event {
+        @Label("Group")
+        String group;
+        @Label("Nested Groups")
+        int nestedGroups;
+        @Label("Removed Lines")
+        int removedLines;
+    }
+
+    @Name("org.avoka.linegroups.LevelBuilt")
+    @Label("Level Built")
+    @Description("Groups of the signatures with the same number of original groups")
+    @Category("Line Groups")
+    static class LevelEvent extends Event {
+        @Label("Cardinality")
+        int cardinality;
+        @Label("Groups")
+        int groups;
+        @Label("Lines")
+        int lines;
+    }
+
+    @Name("org.avoka.linegroups.Arranged")
+    @Label("Arranged")
+    @Category("Line Groups")
+    static class ArrangedEvent extends Event {
+        @Label("Inputs")
+        int inputs;
+        @Label("Indexed Lines")
+        int indexedLines;
+        @Label("Registered Lines")
+        int registeredLines;
+        @Label("Signatures")
+        int signatures;
+        @Label("Groups")
+        int groups;
+    }
+
+    /** phase events begun on the current thread by the ordinals of the phases */
+    private final ThreadLocal<PhaseEvent[]> phases = ThreadLocal.withInitial(() -> new PhaseEvent[ArrangePhase.values().length]);
+    /** level event begun on the current thread */
+    private final ThreadLocal<LevelEvent> level = new ThreadLocal<>();
+
+    @Override
+    public void inputRead(LineGroup group, long bytes, int lines, long nanos) {
+        final InputReadEvent event = new InputReadEvent();
+        if (event.shouldCommit()) {
+            event.group = group.getName();
+            event.bytes = bytes;
+            event.lines = lines;
+            event.distinctLines = group.size();
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void phaseStarted(ArrangePhase phase) {
+        final PhaseEvent event = new PhaseEvent();
+        event.begin();
+        phases.get()[phase.ordinal()] = event;
+    }
+
+    @Override
+    public void phaseCompleted(ArrangePhase phase, long nanos) {
+        final PhaseEvent[] started = phases.get();
+        final PhaseEvent event = started[phase.ordinal()];
+        if (event == null) {
+            return;
+        }
+        started[phase.ordinal()] = null;
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.name();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void containmentNested(String group, int nestedGroups, int removedLines) {
+        final ContainmentEvent event = new ContainmentEvent();
+        if (event.shouldCommit()) {
+            event.group = group;
+            event.nestedGroups = nestedGroups;
+            event.removedLines = removedLines;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void levelStarted(int cardinality) {
+        final LevelEvent event = new LevelEvent();
+        event.begin();
+        level.set(event);
+    }
+
+    @Override
+    public void levelBuilt(int cardinality, int groups, int lines, long nanos) {
+        final LevelEvent event = level.get();
+        if (event == null) {
+            return;
+        }
+        level.remove();
+        event.end();
+        if (event.shouldCommit()) {
+            event.cardinality = cardinality;
+            event.groups = groups;
+            event.lines = lines;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void arranged(int inputs, int indexedLines, int registeredLines, int signatures, int groups) {
+        final ArrangedEvent event = new ArrangedEvent();
+        if (event.shouldCommit()) {
+            event.inputs = inputs;
+            event.indexedLines = indexedLines;
+            event.registeredLines = registeredLines;
+            event.signatures = signatures;
+            event.groups = groups;
+            event.commit();
+        }
+    }
+}
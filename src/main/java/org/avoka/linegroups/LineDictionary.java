@@ -0,0 +1,244 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interns each distinct line once and assigns it a dense int id.
+ * Line groups sharing a dictionary store only the ids of their lines.
+ * Lines are keyed by the 128-bit hash of their UTF-8 bytes, so they can be
+ * interned straight from a byte buffer and decoded only when first seen.
+ *
+ * A dictionary created with {@link #canonicalOps()} identifies lines by the
+ * 128-bit hash of their canonical op form instead, so the same op serialized
+ * with a different key order or whitespace gets the same id. The canonical
+ * form is computed once per distinct line text, the text seen first is kept for output.
+ *
+ * @author Alexey Loubyansky
+ */
+public class LineDictionary {
+
+    private static final LineDictionary DEFAULT = new LineDictionary();
+
+    /**
+     * @return  the plain dictionary shared by the groups built without one, its lines are retained
+     *          for the life of the process
+     */
+    public static LineDictionary getDefault() {
+        return DEFAULT;
+    }
+
+    public static LineDictionary canonicalOps() {
+        return new LineDictionary(true);
+    }
+
+    /**
+     * Open addressing table of 128-bit hashes, slots hold id + 1.
+     */
+    static class HashTable {
+
+        long[] hashHi = new long[128];
+        long[] hashLo = new long[128];
+        int[] slots = new int[128];
+        int size;
+
+        int get(long hi, long lo) {
+            return slots[slot(hi, lo)] - 1;
+        }
+
+        void put(long hi, long lo, int id) {
+            final int slot = slot(hi, lo);
+            if (slots[slot] == 0) {
+                hashHi[slot] = hi;
+                hashLo[slot] = lo;
+                ++size;
+            }
+            slots[slot] = id + 1;
+            if (size << 1 > slots.length) {
+                rehash();
+            }
+        }
+
+        private int slot(long hi, long lo) {
+            final int mask = slots.length - 1;
+            int slot = (int) (hi ^ (hi >>> 32)) & mask;
+            while (slots[slot] != 0 && (hashHi[slot] != hi || hashLo[slot] != lo)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash() {
+            final long[] oldHi = hashHi;
+            final long[] oldLo = hashLo;
+            final int[] oldSlots = slots;
+            hashHi = new long[oldSlots.length << 1];
+            hashLo = new long[oldSlots.length << 1];
+            slots = new int[oldSlots.length << 1];
+            for (int i = 0; i < oldSlots.length; ++i) {
+                if (oldSlots[i] != 0) {
+                    final int slot = slot(oldHi[i], oldLo[i]);
+                    hashHi[slot] = oldHi[i];
+                    hashLo[slot] = oldLo[i];
+                    slots[slot] = oldSlots[i];
+                }
+            }
+        }
+    }
+
+    private final boolean canonical;
+    private String[] lines = new String[64];
+    /** content keys of the lines by id, i.e. the hashes identifying them */
+    private long[] keyHi = new long[64];
+    private long[] keyLo = new long[64];
+    private int size;
+
+    /** ids by the hash of the line text */
+    private final HashTable raw = new HashTable();
+    /** ids by the hash of the canonical op form */
+    private final HashTable canonicalOps;
+
+    public LineDictionary() {
+        this(false);
+    }
+
+    private LineDictionary(boolean canonical) {
+        this.canonical = canonical;
+        canonicalOps = canonical ? new HashTable() : null;
+    }
+
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    public int intern(String line) {
+        final long[] hash = new long[2];
+        LineHash.hash(line, hash);
+        synchronized (this) {
+            final int id = raw.get(hash[0], hash[1]);
+            if (id >= 0) {
+                return id;
+            }
+        }
+        return add(hash[0], hash[1], line);
+    }
+
+    /**
+     * Interns the line occupying the given absolute range of the buffer.
+     * The hash is expected to be computed with {@link LineHash} for the same range.
+     * The bytes are decoded only if the line has not been interned yet.
+     */
+    int intern(long hi, long lo, ByteBuffer buf, int offset, int length) {
+        synchronized (this) {
+            final int id = raw.get(hi, lo);
+            if (id >= 0) {
+                return id;
+            }
+        }
+        final ByteBuffer bytes = buf.duplicate();
+        bytes.limit(offset + length).position(offset);
+        return add(hi, lo, StandardCharsets.UTF_8.decode(bytes).toString());
+    }
+
+    /**
+     * @return  id of the line or -1 if the line has not been interned
+     */
+    public int getId(String line) {
+        final long[] hash = new long[2];
+        LineHash.hash(line, hash);
+        synchronized (this) {
+            final int id = raw.get(hash[0], hash[1]);
+            if (id >= 0 || !canonical) {
+                return id;
+            }
+        }
+        canonicalHash(line, hash);
+        synchronized (this) {
+            return canonicalOps.get(hash[0], hash[1]);
+        }
+    }
+
+    public synchronized String getLine(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown line id " + id);
+        }
+        return lines[id];
+    }
+
+    /**
+     * Stores the 128-bit hash identifying the line with the given id, which doesn't
+     * depend on the order in which lines were interned, in the first two elements of the array.
+     */
+    synchronized void getKey(int id, long[] out) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown line id " + id);
+        }
+        out[0] = keyHi[id];
+        out[1] = keyLo[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds the line text that missed the raw table, the canonical form is computed outside the lock.
+     */
+    private int add(long hi, long lo, String line) {
+        long[] key = null;
+        if (canonical) {
+            key = new long[2];
+            canonicalHash(line, key);
+        }
+        synchronized (this) {
+            int id = raw.get(hi, lo);
+            if (id >= 0) {
+                return id;
+            }
+            if (canonical) {
+                id = canonicalOps.get(key[0], key[1]);
+            }
+            if (id < 0) {
+                if (size == lines.length) {
+                    lines = Arrays.copyOf(lines, size << 1);
+                    keyHi = Arrays.copyOf(keyHi, size << 1);
+                    keyLo = Arrays.copyOf(keyLo, size << 1);
+                }
+                lines[size] = line;
+                keyHi[size] = canonical ? key[0] : hi;
+                keyLo[size] = canonical ? key[1] : lo;
+                id = size++;
+                if (canonical) {
+                    canonicalOps.put(key[0], key[1], id);
+                }
+            }
+            raw.put(hi, lo, id);
+            return id;
+        }
+    }
+
+    /**
+     * Hashes the canonical op form of the line or the line itself if it is not an op.
+     */
+    static void canonicalHash(String line, long[] out) {
+        final String canonical = CanonicalOp.canonicalize(line);
+        LineHash.hash(canonical == null ? line : canonical, out);
+    }
+}
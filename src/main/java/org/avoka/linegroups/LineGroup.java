@@ -16,9 +16,14 @@
  */
 package org.avoka.linegroups;
 
+import java.util.AbstractSet;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -30,21 +35,25 @@ public class LineGroup {
     public static class Builder {
 
         private String name;
-        private Set<String> lines = Collections.emptySet();
+        private final LineDictionary dictionary;
+        private BitSet lines;
         private Set<String> nestedGroups = Collections.emptySet();
+        /** content digest of the lines and nested groups, null if it has to be computed */
+        private long[] digest;
 
-        private Builder(String name) {
+        private Builder(String name, LineDictionary dictionary) {
             this.name = name;
+            this.dictionary = dictionary;
+            this.lines = new BitSet();
         }
 
         private Builder(LineGroup group) {
             this.name = group.name;
-            if (!group.lines.isEmpty()) {
-                if (group.lines.size() > 1) {
-                    lines = new HashSet<String>(group.lines);
-                } else {
-                    lines = Collections.singleton(group.lines.iterator().next());
-                }
+            this.dictionary = group.dictionary;
+            this.digest = new long[] {group.digestHi, group.digestLo};
+            this.lines = new BitSet(group.lines.length == 0 ? 0 : group.lines[group.lines.length - 1] + 1);
+            for (int id : group.lines) {
+                lines.set(id);
             }
             if (group.hasNestedGroups()) {
                 if (group.nestedGroups.size() == 1) {
@@ -57,40 +66,44 @@ public class LineGroup {
         }
 
         public Builder addLine(String line) {
-            switch (lines.size()) {
-                case 0:
-                    lines = Collections.singleton(line);
-                    break;
-                case 1:
-                    lines = new HashSet<>(lines);
-                default:
-                    lines.add(line);
-            }
+            lines.set(dictionary.intern(line));
+            digest = null;
+            return this;
+        }
+
+        public Builder addLine(int id) {
+            lines.set(id);
+            digest = null;
             return this;
         }
 
         public Builder removeLine(String line) {
-            if (lines.contains(line)) {
-                switch (lines.size()) {
-                    case 1:
-                        lines = Collections.emptySet();
-                        break;
-                    case 2:
-                        for (String str : lines) {
-                            if (!str.equals(line)) {
-                                lines = Collections.singleton(str);
-                            }
-                        }
-                        break;
-                    default:
-                        lines.remove(line);
-                }
+            final int id = dictionary.getId(line);
+            if (id >= 0) {
+                lines.clear(id);
+                digest = null;
             }
             return this;
         }
 
+        public Builder removeLine(int id) {
+            lines.clear(id);
+            digest = null;
+            return this;
+        }
+
+        /**
+         * Replaces the lines of the builder with the bitset of line ids without copying it,
+         * the caller must not modify the bitset afterwards.
+         */
+        Builder setLines(BitSet lines) {
+            this.lines = lines;
+            digest = null;
+            return this;
+        }
+
         public int linesTotal() {
-            return lines.size();
+            return lines.cardinality();
         }
 
         public Builder nestGroup(String nested) {
@@ -103,16 +116,69 @@ public class LineGroup {
                 default:
                     nestedGroups.add(nested);
             }
+            digest = null;
+            return this;
+        }
+
+        /**
+         * Names the group after its content id, see {@link LineGroup#getContentId()}.
+         */
+        Builder nameByContent() {
+            name = toHex(digest());
             return this;
         }
 
         public LineGroup build() {
             return new LineGroup(this);
         }
+
+        private long[] digest() {
+            if (digest != null) {
+                return digest;
+            }
+            final long[] hash = new long[2];
+            long linesHi = 0;
+            long linesLo = 0;
+            for (int id = lines.nextSetBit(0); id >= 0; id = lines.nextSetBit(id + 1)) {
+                dictionary.getKey(id, hash);
+                linesHi += LineHash.fmix(hash[0]);
+                linesLo += LineHash.fmix(hash[1]);
+            }
+            digest = LineGroup.digest(lines.cardinality(), linesHi, linesLo, nestedGroups);
+            return digest;
+        }
+    }
+
+    /**
+     * Combines the order independent sums of the mixed line keys and the mixed hashes
+     * of the nested group names, so the digest of a group whose nested groups are
+     * named by their content ids covers the whole subtree.
+     *
+     * @param linesHi  sum of {@link LineHash#fmix(long)} of the first halves of the line keys
+     * @param linesLo  sum of {@link LineHash#fmix(long)} of the second halves of the line keys
+     */
+    static long[] digest(int linesTotal, long linesHi, long linesLo, Collection<String> nestedGroups) {
+        final long[] hash = new long[2];
+        long nestedHi = 0;
+        long nestedLo = 0;
+        for (String nested : nestedGroups) {
+            LineHash.hash(nested, hash);
+            nestedHi += LineHash.fmix(hash[0]);
+            nestedLo += LineHash.fmix(hash[1]);
+        }
+        LineHash.hash(new long[] {linesTotal, linesHi, linesLo, nestedGroups.size(), nestedHi, nestedLo}, hash);
+        return hash;
     }
 
+    /**
+     * Builder adding the lines to the {@link LineDictionary#getDefault() default dictionary}.
+     */
     public static Builder builder(String name) {
-        return new Builder(name);
+        return new Builder(name, LineDictionary.getDefault());
+    }
+
+    public static Builder builder(String name, LineDictionary dictionary) {
+        return new Builder(name, dictionary);
     }
 
     public static Builder builder(LineGroup group) {
@@ -121,12 +187,20 @@ public class LineGroup {
 
     private final String name;
     private final Set<String> nestedGroups;
-    private final Set<String> lines;
+    private final LineDictionary dictionary;
+    /** sorted ids of the lines */
+    private final int[] lines;
+    private final long digestHi;
+    private final long digestLo;
 
     private LineGroup(Builder builder) {
         this.name = builder.name;
-        this.lines = Collections.unmodifiableSet(builder.lines);
+        this.dictionary = builder.dictionary;
+        this.lines = builder.lines.stream().toArray();
         this.nestedGroups = Collections.unmodifiableSet(builder.nestedGroups);
+        final long[] digest = builder.digest();
+        this.digestHi = digest[0];
+        this.digestLo = digest[1];
     }
 
     public String getName() {
@@ -134,13 +208,74 @@ public class LineGroup {
     }
 
     public int size() {
-        return lines.size();
+        return lines.length;
+    }
+
+    /**
+     * Hex 128-bit digest of the line contents and the names of the nested groups.
+     * New groups created by the arrangement are named after it, so identical subtrees
+     * get the same id across runs and input sets.
+     */
+    public String getContentId() {
+        return toHex(new long[] {digestHi, digestLo});
     }
 
+    public LineDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Lines of the group resolved against its dictionary.
+     */
     public Set<String> getLines() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    int i;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < lines.length;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (i == lines.length) {
+                            throw new NoSuchElementException();
+                        }
+                        return dictionary.getLine(lines[i++]);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && containsLine(dictionary.getId((String) o));
+            }
+
+            @Override
+            public int size() {
+                return lines.length;
+            }
+        };
+    }
+
+    /**
+     * @return  a copy of the sorted line ids
+     */
+    public int[] getLineIds() {
+        return lines.clone();
+    }
+
+    int[] lineIds() {
         return lines;
     }
 
+    public boolean containsLine(int id) {
+        return id >= 0 && Arrays.binarySearch(lines, id) >= 0;
+    }
+
     public boolean hasNestedGroups() {
         return !nestedGroups.isEmpty();
     }
@@ -153,12 +288,14 @@ public class LineGroup {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((lines == null) ? 0 : lines.hashCode());
+        result = prime * result + Long.hashCode(digestHi);
         result = prime * result + ((name == null) ? 0 : name.hashCode());
-        result = prime * result + ((nestedGroups == null) ? 0 : nestedGroups.hashCode());
         return result;
     }
 
+    /**
+     * Groups are equal if they have the same name, dictionary and content digest.
+     */
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
@@ -168,29 +305,23 @@ public class LineGroup {
         if (getClass() != obj.getClass())
             return false;
         LineGroup other = (LineGroup) obj;
-        if (lines == null) {
-            if (other.lines != null)
-                return false;
-        } else if (!lines.equals(other.lines))
+        if (dictionary != other.dictionary)
+            return false;
+        if (digestHi != other.digestHi || digestLo != other.digestLo)
             return false;
         if (name == null) {
             if (other.name != null)
                 return false;
         } else if (!name.equals(other.name))
             return false;
-        if (nestedGroups == null) {
-            if (other.nestedGroups != null)
-                return false;
-        } else if (!nestedGroups.equals(other.nestedGroups))
-            return false;
         return true;
     }
 
     public String toString() {
         final StringBuilder buf = new StringBuilder();
         buf.append("[").append(name).append(":");
-        for (String line : lines) {
-            buf.append("\n").append(line);
+        for (int id : lines) {
+            buf.append("\n").append(dictionary.getLine(id));
         }
         if (!nestedGroups.isEmpty()) {
             final String[] arr = nestedGroups.toArray(new String[nestedGroups.size()]);
@@ -199,4 +330,16 @@ public class LineGroup {
         }
         return buf.append(']').toString();
     }
+
+    static String toHex(long[] digest) {
+        final StringBuilder buf = new StringBuilder(32);
+        for (long half : digest) {
+            final String hex = Long.toHexString(half);
+            for (int i = hex.length(); i < 16; ++i) {
+                buf.append('0');
+            }
+            buf.append(hex);
+        }
+        return buf.toString();
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 128-bit MurmurHash3 (x64 variant) of line bytes.
+ *
+ * @author Alexey Loubyansky
+ */
+final class LineHash {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private LineHash() {
+    }
+
+    static void hash(String line, long[] out) {
+        final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        hash(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 0, bytes.length, out);
+    }
+
+    /**
+     * Hashes the bytes of the buffer at the given absolute range, the buffer
+     * is expected to be in little endian order. The two halves of the hash
+     * are stored in the first two elements of the output array.
+     */
+    static void hash(ByteBuffer buf, int offset, int length, long[] out) {
+        long h1 = 0;
+        long h2 = 0;
+        final int blocks = length >>> 4;
+        for (int i = 0; i < blocks; ++i) {
+            final int block = offset + (i << 4);
+            long k1 = buf.getLong(block);
+            long k2 = buf.getLong(block + 8);
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        final int tail = offset + (blocks << 4);
+        final int remaining = length & 15;
+        if (remaining > 8) {
+            long k2 = 0;
+            for (int i = remaining - 1; i >= 8; --i) {
+                k2 ^= (buf.get(tail + i) & 0xffL) << ((i - 8) << 3);
+            }
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        if (remaining > 0) {
+            long k1 = 0;
+            for (int i = Math.min(remaining, 8) - 1; i >= 0; --i) {
+                k1 ^= (buf.get(tail + i) & 0xffL) << (i << 3);
+            }
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        out[0] = h1;
+        out[1] = h2;
+    }
+
+    /**
+     * Hashes the longs as if they were written in little endian order.
+     */
+    static void hash(long[] values, long[] out) {
+        final ByteBuffer buf = ByteBuffer.allocate(values.length << 3).order(ByteOrder.LITTLE_ENDIAN);
+        for (long value : values) {
+            buf.putLong(value);
+        }
+        hash(buf, 0, buf.capacity(), out);
+    }
+
+    static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
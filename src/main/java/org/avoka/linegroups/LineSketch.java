@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.Arrays;
+
+/**
+ * Bottom-k MinHash sketch of the lines of a group, i.e. the k smallest hashes
+ * of the line keys along with the exact number of lines.
+ *
+ * The line keys don't depend on the order in which the lines were interned,
+ * so sketches of groups from different dictionaries can be compared as long as
+ * the dictionaries are either both canonical or both not. The Jaccard index of
+ * two groups is estimated from the k smallest hashes of their union and
+ * the containment is derived from it and the exact sizes.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class LineSketch {
+
+    public static final int DEFAULT_SIZE = 256;
+
+    public static LineSketch of(LineGroup group) {
+        return of(group, DEFAULT_SIZE);
+    }
+
+    public static LineSketch of(LineGroup group, int k) {
+        if (k <= 0) {
+            throw new IllegalStateException("Sketch size must be positive: " + k);
+        }
+        final int[] lines = group.lineIds();
+        // max-heap of the smallest hashes seen so far
+        final long[] heap = new long[Math.min(k, lines.length)];
+        final long[] key = new long[2];
+        int size = 0;
+        for (int line : lines) {
+            group.getDictionary().getKey(line, key);
+            final long hash = LineHash.fmix(key[0] ^ key[1]);
+            if (size < heap.length) {
+                heap[size] = hash;
+                siftUp(heap, size++);
+            } else if (hash < heap[0]) {
+                heap[0] = hash;
+                siftDown(heap, size);
+            }
+        }
+        Arrays.sort(heap);
+        return new LineSketch(group.getName(), lines.length, heap, k);
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        final long hash = heap[i];
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (heap[parent] >= hash) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = hash;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        final long hash = heap[0];
+        int i = 0;
+        while (true) {
+            int child = (i << 1) + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                ++child;
+            }
+            if (heap[child] <= hash) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = hash;
+    }
+
+    private final String name;
+    private final int size;
+    /** sorted smallest hashes of the lines */
+    private final long[] hashes;
+    private final int k;
+
+    private LineSketch(String name, int size, long[] hashes, int k) {
+        this.name = name;
+        this.size = size;
+        this.hashes = hashes;
+        this.k = k;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return  number of lines in the group
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return  estimated ratio of the shared lines to the lines of either group
+     */
+    public double jaccard(LineSketch other) {
+        if (size == 0 || other.size == 0) {
+            return size == other.size ? 1 : 0;
+        }
+        final int limit = Math.min(k, other.k);
+        // walks the smallest hashes of the union counting those present in both sketches
+        int i = 0;
+        int j = 0;
+        int union = 0;
+        int shared = 0;
+        while (union < limit && (i < hashes.length || j < other.hashes.length)) {
+            final long h1 = i < hashes.length ? hashes[i] : Long.MAX_VALUE;
+            final long h2 = j < other.hashes.length ? other.hashes[j] : Long.MAX_VALUE;
+            if (i < hashes.length && (j == other.hashes.length || h1 < h2)) {
+                ++i;
+            } else if (j < other.hashes.length && (i == hashes.length || h2 < h1)) {
+                ++j;
+            } else {
+                ++i;
+                ++j;
+                ++shared;
+            }
+            ++union;
+        }
+        return (double) shared / union;
+    }
+
+    /**
+     * @return  estimated ratio of the lines of this group also found in the other one
+     */
+    public double containment(LineSketch other) {
+        return containment(other, jaccard(other));
+    }
+
+    double containment(LineSketch other, double jaccard) {
+        if (size == 0) {
+            return 1;
+        }
+        // |A & B| = J * |A | B| and |A | B| = (|A| + |B|) / (1 + J)
+        return Math.min(1, jaccard * (size + other.size) / ((1 + jaccard) * size));
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + size + " lines)";
+    }
+}
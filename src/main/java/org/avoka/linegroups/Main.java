@@ -16,14 +16,14 @@
  */
 package org.avoka.linegroups;
 
-import java.io.BufferedReader;
-import java.io.IOException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.ModelType;
@@ -46,70 +46,41 @@ public class Main {
         //final LineGroup standaloneHa = readGroup("standalone-ha.xml");
         //final LineGroup standaloneFullHa = readGroup("standalone-full-ha.xml");
 
-        final Map<String, LineGroup> groups = Util.arrange(
-                readGroup("standalone-minimalistic.xml"),
-                readGroup("standalone-core.xml"),
-                readGroup("standalone-servlet.xml"),
-                readGroup("standalone-servlet-load-balancer.xml")
-                );
-        for (LineGroup g : groups.values()) {
-            System.out.println();
-            System.out.println("GROUP " + g.getName());
-            if (g.hasNestedGroups()) {
-                System.out.println("  Includes:");
-                final String[] arr = g.getNestedGroupNames().toArray(new String[g.getNestedGroupNames().size()]);
-                Arrays.sort(arr);
-                for(String nestedGroup : arr) {
-                    logNestedGroups(nestedGroup, groups, 4);
-                }
-            }
-            if (g.size() > 0) {
-                System.out.println(" Lines:");
-                final String[] arr = g.getLines().toArray(new String[g.size()]);
-                Arrays.sort(arr);
-                for (String line : arr) {
-                    System.out.println("  " + toCliLine(ModelNode.fromJSONString(line)));
-                }
-            }
-        }
+        final ArrangeMetrics metrics = new ArrangeMetrics();
+        final ArrangeListener listener = ArrangeListener.of(metrics, ArrangeListener.jfr());
+        final Map<String, LineGroup> groups = new ArrangeCache(getCacheDir(), listener).arrange(LineDictionary.canonicalOps(), getConfigs(
+                "standalone-minimalistic.xml",
+                "standalone-core.xml",
+                "standalone-servlet.xml",
+                "standalone-servlet-load-balancer.xml"
+                ));
+        final ReportFormat format = StandardReportFormat.valueOf(System.getProperty("linegroups.format", "cli").toUpperCase());
+        new ReportWriter(format, ForkJoinPool.commonPool()).write(groups, new FileOutputStream(FileDescriptor.out).getChannel());
+        metrics.report(System.err);
     }
 
-    private static void logNestedGroups(String groupName, Map<String, LineGroup> groups, int offset) {
-        final StringBuilder buf = new StringBuilder();
-        for(int i = 0; i < offset; ++i) {
-            buf.append(' ');
-        }
-        buf.append(groupName);
-        System.out.println(buf.toString());
-        final LineGroup lineGroup = groups.get(groupName);
-        if(lineGroup.hasNestedGroups()) {
-            for(String nestedGroup : lineGroup.getNestedGroupNames()) {
-                logNestedGroups(nestedGroup, groups, offset + 2);
-            }
+    private static Path[] getConfigs(String... names) {
+        final Path[] configs = new Path[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            configs[i] = getConfig(names[i]);
         }
+        return configs;
     }
 
-    private static LineGroup readGroup(String name) throws IOException {
-        final LineGroup.Builder builder = LineGroup.builder(name);
-        try (BufferedReader reader = Files.newBufferedReader(getConfig(name))) {
-            String line = reader.readLine();
-            while (line != null) {
-                builder.addLine(line);
-                line = reader.readLine();
-            }
-        }
-        return builder.build();
+    private static Path getCacheDir() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "linegroups");
     }
 
     private static Path getConfig(String file) {
-        final Path config = Paths.get("/home/olubyans/git/bootops/logged/standalone/json").resolve(file);
+        final Path config = Paths.get(System.getProperty("linegroups.dir", "/home/olubyans/git/bootops/logged/standalone/json"))
+                .resolve(file);
         if (!Files.exists(config)) {
             throw new IllegalStateException(config + " does not exist");
         }
         return config;
     }
 
-    private static String toCliLine(ModelNode op) {
+    static String toCliLine(ModelNode op) {
         final StringBuilder buf = new StringBuilder();
         buf.append('/');
         if (op.hasDefined("address")) {
@@ -137,23 +108,29 @@ public class Main {
                     buf.append(',');
                 }
                 buf.append(key).append("=");
-                final ModelNode value = op.get(key);
-                final boolean complexType = value.getType().equals(ModelType.OBJECT) || value.getType().equals(ModelType.LIST)
-                        || value.getType().equals(ModelType.PROPERTY);
-                final String strValue = value.asString();
-                if (!complexType) {
-                    buf.append("\"");
-                    if (!strValue.isEmpty() && strValue.charAt(0) == '$') {
-                        buf.append('\\');
-                    }
-                }
-                buf.append(strValue);
-                if (!complexType) {
-                    buf.append('"');
-                }
+                appendCliValue(op.get(key), buf);
             }
             buf.append(')');
         }
         return buf.toString();
     }
+
+    /**
+     * Appends a parameter value, simple values are quoted and escaped if they start with '$'.
+     */
+    static void appendCliValue(ModelNode value, StringBuilder buf) {
+        final boolean complexType = value.getType().equals(ModelType.OBJECT) || value.getType().equals(ModelType.LIST)
+                || value.getType().equals(ModelType.PROPERTY);
+        final String strValue = value.asString();
+        if (!complexType) {
+            buf.append("\"");
+            if (!strValue.isEmpty() && strValue.charAt(0) == '$') {
+                buf.append('\\');
+            }
+        }
+        buf.append(strValue);
+        if (!complexType) {
+            buf.append('"');
+        }
+    }
 }
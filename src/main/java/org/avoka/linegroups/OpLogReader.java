@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Reads op logs into line groups by memory-mapping the files and splitting
+ * the lines on the raw bytes. Lines are deduplicated by the hash of their bytes
+ * and are decoded only when the dictionary sees them for the first time.
+ *
+ * @author Alexey Loubyansky
+ */
+public class OpLogReader {
+
+    /** the largest region of a file mapped at once */
+    private static final int WINDOW = 1 << 30;
+
+    public static LineGroup read(String name, Path file, LineDictionary dictionary) throws IOException {
+        return read(name, file, dictionary, ArrangeListener.NONE, WINDOW);
+    }
+
+    public static LineGroup read(String name, Path file, LineDictionary dictionary, ArrangeListener listener)
+            throws IOException {
+        return read(name, file, dictionary, listener, WINDOW);
+    }
+
+    /**
+     * Reads the files concurrently, the groups are named after the file names
+     * and returned in the order of the arguments.
+     *
+     * Every file is first scanned for the hashes and ranges of its distinct lines, then the lines
+     * are interned in the order of the files and of their first occurrences in them, so the ids and
+     * the texts kept for the canonical ops don't depend on which file was read first. A line is
+     * decoded, and canonicalized, only if the dictionary doesn't know its hash yet.
+     */
+    public static LineGroup[] readAll(LineDictionary dictionary, Path... files) throws IOException {
+        return readAll(dictionary, ArrangeListener.NONE, files);
+    }
+
+    public static LineGroup[] readAll(LineDictionary dictionary, ArrangeListener listener, Path... files)
+            throws IOException {
+        listener.phaseStarted(ArrangePhase.READ);
+        final long start = System.nanoTime();
+        final List<CompletableFuture<ReadFile>> futures = new ArrayList<>(files.length);
+        for (Path file : files) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new ReadFile(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        final LineGroup[] groups = new LineGroup[files.length];
+        try {
+            for (int i = 0; i < groups.length; ++i) {
+                final ReadFile read = futures.get(i).join();
+                final long internStart = System.nanoTime();
+                final LineGroup.Builder builder = LineGroup.builder(files[i].getFileName().toString(), dictionary);
+                for (int line = 0; line < read.size; ++line) {
+                    final int range = line * 3;
+                    builder.addLine(dictionary.intern(read.hashes[line << 1], read.hashes[(line << 1) + 1],
+                            read.windows.get(read.ranges[range]), read.ranges[range + 1], read.ranges[range + 2]));
+                }
+                groups[i] = builder.build();
+                listener.inputRead(groups[i], read.fileSize, read.lineCount, read.nanos + System.nanoTime() - internStart);
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        listener.phaseCompleted(ArrangePhase.READ, System.nanoTime() - start);
+        return groups;
+    }
+
+    /**
+     * Hashes and ranges of the distinct lines of a file in the order of their first occurrences.
+     */
+    private static class ReadFile {
+        /** the mapped regions of the file, which stay valid after the file is closed */
+        final List<MappedByteBuffer> windows = new ArrayList<>(1);
+        /** raw hashes of the lines */
+        long[] hashes = new long[128];
+        /** region index, offset in the region and length of the lines */
+        int[] ranges = new int[192];
+        int size;
+        final long fileSize;
+        final long nanos;
+        int lineCount;
+
+        ReadFile(Path file) throws IOException {
+            final long start = System.nanoTime();
+            final long[] hash = new long[2];
+            final LineDictionary.HashTable seen = new LineDictionary.HashTable();
+            fileSize = scan(file, WINDOW, (buf, offset, length, position) -> {
+                ++lineCount;
+                LineHash.hash(buf, offset, length, hash);
+                if (seen.get(hash[0], hash[1]) < 0) {
+                    seen.put(hash[0], hash[1], size);
+                    add(hash, buf, offset, length);
+                }
+            });
+            nanos = System.nanoTime() - start;
+        }
+
+        private void add(long[] hash, MappedByteBuffer buf, int offset, int length) {
+            if (windows.isEmpty() || windows.get(windows.size() - 1) != buf) {
+                windows.add(buf);
+            }
+            if (size << 1 == hashes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length << 1);
+                ranges = Arrays.copyOf(ranges, ranges.length << 1);
+            }
+            hashes[size << 1] = hash[0];
+            hashes[(size << 1) + 1] = hash[1];
+            ranges[size * 3] = windows.size() - 1;
+            ranges[size * 3 + 1] = offset;
+            ranges[size * 3 + 2] = length;
+            ++size;
+        }
+    }
+
+    static LineGroup read(String name, Path file, LineDictionary dictionary, ArrangeListener listener, int window)
+            throws IOException {
+        final long start = System.nanoTime();
+        final LineGroup.Builder builder = LineGroup.builder(name, dictionary);
+        final long[] hash = new long[2];
+        final int[] lines = new int[1];
+        final long fileSize = scan(file, window, (buf, offset, length, position) -> {
+            LineHash.hash(buf, offset, length, hash);
+            builder.addLine(dictionary.intern(hash[0], hash[1], buf, offset, length));
+            ++lines[0];
+        });
+        final LineGroup group = builder.build();
+        listener.inputRead(group, fileSize, lines[0], System.nanoTime() - start);
+        return group;
+    }
+
+    /**
+     * Receives the lines of a file as ranges of the mapped region they belong to.
+     */
+    interface LineVisitor {
+        /**
+         * @param buf  little endian region of the file
+         * @param offset  absolute offset of the line in the region
+         * @param position  offset of the line in the file
+         */
+        void line(MappedByteBuffer buf, int offset, int length, long position) throws IOException;
+    }
+
+    /**
+     * Splits the file into lines mapping at most window bytes at once.
+     *
+     * @return  size of the file
+     */
+    static long scan(Path file, int window, LineVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long fileSize = channel.size();
+            long position = 0;
+            while (position < fileSize) {
+                final int mapped = (int) Math.min(window, fileSize - position);
+                final boolean last = position + mapped == fileSize;
+                final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, mapped);
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                int lineStart = 0;
+                int i = 0;
+                while (i < mapped) {
+                    final byte b = buf.get(i);
+                    if (b != '\n' && b != '\r') {
+                        ++i;
+                        continue;
+                    }
+                    if (b == '\r' && i + 1 == mapped && !last) {
+                        // the terminator may continue in the next region
+                        break;
+                    }
+                    visitor.line(buf, lineStart, i - lineStart, position + lineStart);
+                    if (b == '\r' && i + 1 < mapped && buf.get(i + 1) == '\n') {
+                        ++i;
+                    }
+                    lineStart = ++i;
+                }
+                if (last) {
+                    if (lineStart < mapped) {
+                        visitor.line(buf, lineStart, mapped - lineStart, position + lineStart);
+                    }
+                } else if (lineStart == 0) {
+                    throw new IllegalStateException("Line at " + position + " in " + file + " exceeds " + window + " bytes");
+                }
+                position += last ? mapped : lineStart;
+            }
+            return fileSize;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Arranges line groups with their lines partitioned by the leading element of the op addresses.
+ *
+ * A line belongs to a single partition, so the lines of every partition are registered,
+ * bucketed by their signatures and reduced into the closures of the input groups on their own,
+ * in parallel if the options have a pool.
+ *
+ * With the signatures merged, the buckets of the same signature in different partitions are joined
+ * and the closures of the partitions intersected, which yields the same groups as
+ * {@link Util#arrange(ArrangeOptions, LineGroup...)}. Otherwise every partition is arranged as
+ * a scope of its own: a new group holds lines of one partition only and an input group with lines
+ * in several partitions nests its closure in each of them, which keeps the ops of unrelated resources,
+ * e.g. subsystems, in separate groups. Lines that are not ops and ops with an empty address form
+ * the partition with the empty key.
+ *
+ * @author Alexey Loubyansky
+ */
+public class PartitionedArranger {
+
+    public static Map<String, LineGroup> arrange(ArrangeOptions options, boolean mergeSignatures, LineGroup... groups) {
+        if (groups.length == 0) {
+            return new LinkedHashMap<>();
+        }
+        final LineDictionary dictionary = Util.checkDictionary(groups);
+        final ForkJoinPool pool = options.getPool();
+        final ArrangeListener listener = options.getListener();
+
+        listener.phaseStarted(ArrangePhase.CONTAINMENT);
+        long phaseStart = System.nanoTime();
+        Util.nestContained(pool, listener, groups);
+        phaseStart = Util.completed(listener, ArrangePhase.CONTAINMENT, phaseStart, ArrangePhase.REGISTRATION);
+
+        final Map<String, Integer> groupIndexes = Util.indexGroups(groups);
+
+        // the leading address element of every line
+        final int linesTotal = dictionary.size();
+        final BitSet used = new BitSet(linesTotal);
+        for (LineGroup group : groups) {
+            for (int line : group.lineIds()) {
+                used.set(line);
+            }
+        }
+        final String[] keys = new String[linesTotal];
+        Util.forEach(pool, linesTotal, line -> {
+            if (used.get(line)) {
+                final String[] address = CanonicalOp.address(dictionary.getLine(line));
+                keys[line] = address == null || address.length == 0 ? "" : address[0] + '=' + address[1];
+            }
+        });
+        final Map<String, Integer> partitionIndexes = new TreeMap<>();
+        for (int line = used.nextSetBit(0); line >= 0; line = used.nextSetBit(line + 1)) {
+            partitionIndexes.put(keys[line], 0);
+        }
+        int partitionCount = 0;
+        for (Map.Entry<String, Integer> entry : partitionIndexes.entrySet()) {
+            entry.setValue(partitionCount++);
+        }
+        final int[] linePartitions = new int[linesTotal];
+        for (int line = used.nextSetBit(0); line >= 0; line = used.nextSetBit(line + 1)) {
+            linePartitions[line] = partitionIndexes.get(keys[line]);
+        }
+
+        // the lines of every group split by partition
+        final int[][][] parts = new int[partitionCount][groups.length][];
+        final int[] partSizes = new int[partitionCount];
+        for (int i = 0; i < groups.length; ++i) {
+            final int[] lines = groups[i].lineIds();
+            for (int line : lines) {
+                ++partSizes[linePartitions[line]];
+            }
+            for (int p = 0; p < partitionCount; ++p) {
+                parts[p][i] = new int[partSizes[p]];
+                partSizes[p] = 0;
+            }
+            for (int line : lines) {
+                final int p = linePartitions[line];
+                parts[p][i][partSizes[p]++] = line;
+            }
+            for (int p = 0; p < partitionCount; ++p) {
+                partSizes[p] = 0;
+            }
+        }
+
+        // the partitions share no lines, so their workers never touch the same signature
+        final Util.LinesInGroups linesInGroups = new Util.LinesInGroups(linesTotal);
+        final List<Map<BitSet, BitSet>> scopes = new ArrayList<>(Collections.nCopies(partitionCount, null));
+        final List<BitSet[]> scopeClosures = new ArrayList<>(Collections.nCopies(partitionCount, null));
+        Util.forEach(pool, partitionCount, p -> {
+            for (int i = 0; i < groups.length; ++i) {
+                for (int line : parts[p][i]) {
+                    linesInGroups.register(line, i);
+                }
+            }
+            final Map<BitSet, BitSet> partitions = new HashMap<>();
+            for (int i = 0; i < groups.length; ++i) {
+                for (int line : parts[p][i]) {
+                    final BitSet signature = linesInGroups.getSignature(line);
+                    BitSet lines = partitions.get(signature);
+                    if (lines == null) {
+                        lines = new BitSet();
+                        partitions.put(signature, lines);
+                    }
+                    lines.set(line);
+                }
+            }
+            final BitSet[] closures = new BitSet[groups.length];
+            for (int i = 0; i < groups.length; ++i) {
+                closures[i] = Util.closure(linesInGroups, parts[p][i]);
+            }
+            scopes.set(p, partitions);
+            scopeClosures.set(p, closures);
+        });
+
+        phaseStart = Util.completed(listener, ArrangePhase.REGISTRATION, phaseStart, ArrangePhase.CLOSURES);
+
+        if (mergeSignatures && partitionCount > 1) {
+            final Map<BitSet, BitSet> partitions = new HashMap<>();
+            final BitSet[] closures = new BitSet[groups.length];
+            for (int p = 0; p < partitionCount; ++p) {
+                Util.mergePartitions(partitions, scopes.get(p));
+                final BitSet[] partClosures = scopeClosures.get(p);
+                for (int i = 0; i < groups.length; ++i) {
+                    if (partClosures[i] == null) {
+                        continue;
+                    }
+                    if (closures[i] == null) {
+                        closures[i] = partClosures[i];
+                    } else {
+                        closures[i].and(partClosures[i]);
+                    }
+                }
+            }
+            scopes.clear();
+            scopes.add(partitions);
+            scopeClosures.clear();
+            scopeClosures.add(closures);
+        }
+        int signatures = 0;
+        for (int s = 0; s < scopes.size(); ++s) {
+            Util.addClosures(scopes.get(s), scopeClosures.get(s));
+            if (options.isBudgeted()) {
+                Util.select(options, scopes.get(s), scopeClosures.get(s));
+            }
+            signatures += scopes.get(s).size();
+        }
+
+        phaseStart = Util.completed(listener, ArrangePhase.CLOSURES, phaseStart, ArrangePhase.ORDERING);
+
+        final Map<String, LineGroup> result = Util.build(pool, listener, groups, groupIndexes, scopes, scopeClosures,
+                phaseStart);
+        int registeredLines = 0;
+        for (LineGroup group : groups) {
+            registeredLines += group.size();
+        }
+        listener.arranged(groups.length, linesTotal, registeredLines, signatures, result.size());
+        return result;
+    }
+}
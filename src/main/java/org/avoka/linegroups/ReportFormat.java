@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+/**
+ * Format of the groups written by {@link ReportWriter}.
+ *
+ * The methods are called concurrently for different lines and groups, so
+ * the implementations have to be thread-safe. The parts of the report are
+ * concatenated in the order of the groups.
+ *
+ * @author Alexey Loubyansky
+ */
+public interface ReportFormat {
+
+    /**
+     * @param renderer  renderer confined to the calling thread
+     * @return  text of the line as it appears in the report, called once per line
+     */
+    default String renderLine(int id, LineDictionary dictionary, CliRenderer renderer) {
+        return dictionary.getLine(id);
+    }
+
+    /**
+     * @return  whether the groups are listed with the tree of the groups nested in them, see
+     *          {@link GroupResolver#getNestedTree(String)}, instead of the directly nested ones
+     */
+    default boolean listsNestedTree() {
+        return false;
+    }
+
+    byte[] begin(int groups);
+
+    /**
+     * @param index  position of the group in the report
+     * @param nested  sorted names of the nested groups or the indented nested tree
+     * @param lines  rendered lines of the group in the order of the original lines
+     */
+    byte[] group(int index, String name, String[] nested, String[] lines);
+
+    byte[] end();
+}
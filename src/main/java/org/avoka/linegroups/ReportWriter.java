@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Writes arranged groups in a {@link ReportFormat}.
+ *
+ * The lines are sorted once for the whole report and each line is rendered once,
+ * the lines of a group are then ordered by their precomputed ranks. The groups are
+ * rendered into their own buffers, in parallel if there is a pool, and the buffers
+ * are written in the order of the groups with gathering writes.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ReportWriter {
+
+    /** number of lines rendered by a task with its own renderer */
+    private static final int RENDER_CHUNK = 1 << 12;
+
+    private final ReportFormat format;
+    private final ForkJoinPool pool;
+
+    public ReportWriter(ReportFormat format) {
+        this(format, null);
+    }
+
+    public ReportWriter(ReportFormat format, ForkJoinPool pool) {
+        this.format = format;
+        this.pool = pool;
+    }
+
+    public void write(Map<String, LineGroup> groups, OutputStream out) throws IOException {
+        write(groups, Channels.newChannel(out));
+        out.flush();
+    }
+
+    public void write(Map<String, LineGroup> groups, WritableByteChannel out) throws IOException {
+        final LineGroup[] groupArr = groups.values().toArray(new LineGroup[groups.size()]);
+        LineDictionary dictionary = null;
+        final BitSet used = new BitSet();
+        for (LineGroup group : groupArr) {
+            if (group.size() > 0) {
+                if (dictionary == null) {
+                    dictionary = group.getDictionary();
+                } else if (group.getDictionary() != dictionary) {
+                    throw new IllegalStateException("Group " + group.getName() + " uses a different line dictionary");
+                }
+                for (int line : group.lineIds()) {
+                    used.set(line);
+                }
+            }
+        }
+
+        // ranks of the lines in the order of their text
+        final int[] ranks = new int[used.length()];
+        final Integer[] order = new Integer[used.cardinality()];
+        final String[] text = new String[order.length];
+        if (order.length > 0) {
+            final LineDictionary dict = dictionary;
+            int i = 0;
+            for (int line = used.nextSetBit(0); line >= 0; line = used.nextSetBit(line + 1)) {
+                order[i++] = line;
+            }
+            final String[] lines = new String[ranks.length];
+            for (Integer line : order) {
+                lines[line] = dict.getLine(line);
+            }
+            Arrays.sort(order, (o1, o2) -> lines[o1].compareTo(lines[o2]));
+            for (i = 0; i < order.length; ++i) {
+                ranks[order[i]] = i;
+            }
+            Util.forEach(pool, (order.length + RENDER_CHUNK - 1) / RENDER_CHUNK, chunk -> {
+                final CliRenderer renderer = new CliRenderer(dict);
+                final int end = Math.min(order.length, (chunk + 1) * RENDER_CHUNK);
+                for (int rank = chunk * RENDER_CHUNK; rank < end; ++rank) {
+                    text[rank] = format.renderLine(order[rank], dict, renderer);
+                }
+            });
+        }
+
+        final String[][] nested = new String[groupArr.length][];
+        final GroupResolver resolver = format.listsNestedTree() ? new GroupResolver(groups) : null;
+        for (int i = 0; i < groupArr.length; ++i) {
+            if (resolver == null || !groupArr[i].hasNestedGroups()) {
+                final Set<String> names = groupArr[i].getNestedGroupNames();
+                nested[i] = names.toArray(new String[names.size()]);
+                Arrays.sort(nested[i]);
+            } else {
+                final List<String> tree = resolver.getNestedTree(groupArr[i].getName());
+                nested[i] = tree.toArray(new String[tree.size()]);
+            }
+        }
+
+        final ByteBuffer[] buffers = new ByteBuffer[groupArr.length + 2];
+        buffers[0] = ByteBuffer.wrap(format.begin(groupArr.length));
+        Util.forEach(pool, groupArr.length, i -> {
+            final int[] lineRanks = groupArr[i].lineIds().clone();
+            for (int j = 0; j < lineRanks.length; ++j) {
+                lineRanks[j] = ranks[lineRanks[j]];
+            }
+            Arrays.sort(lineRanks);
+            final String[] lines = new String[lineRanks.length];
+            for (int j = 0; j < lines.length; ++j) {
+                lines[j] = text[lineRanks[j]];
+            }
+            buffers[i + 1] = ByteBuffer.wrap(format.group(i, groupArr[i].getName(), nested[i], lines));
+        });
+        buffers[buffers.length - 1] = ByteBuffer.wrap(format.end());
+
+        if (out instanceof GatheringByteChannel) {
+            final GatheringByteChannel channel = (GatheringByteChannel) out;
+            int first = 0;
+            while (first < buffers.length) {
+                channel.write(buffers, first, buffers.length - first);
+                while (first < buffers.length && !buffers[first].hasRemaining()) {
+                    ++first;
+                }
+            }
+        } else {
+            for (ByteBuffer buf : buffers) {
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+            }
+        }
+    }
+}
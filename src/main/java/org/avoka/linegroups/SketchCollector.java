@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Listener sketching every group once it has been read, see {@link ArrangeListener#inputRead(LineGroup, long, int, long)}.
+ * {@link OpLogReader#readAll(LineDictionary, ArrangeListener, java.nio.file.Path...)} reports the groups
+ * one at a time, in the order of the files, on the calling thread.
+ *
+ * @author Alexey Loubyansky
+ */
+public class SketchCollector implements ArrangeListener {
+
+    private final int k;
+    private final Map<String, LineSketch> sketches = new ConcurrentHashMap<>();
+
+    public SketchCollector() {
+        this(LineSketch.DEFAULT_SIZE);
+    }
+
+    public SketchCollector(int k) {
+        this.k = k;
+    }
+
+    @Override
+    public void inputRead(LineGroup group, long bytes, int lines, long nanos) {
+        sketches.put(group.getName(), LineSketch.of(group, k));
+    }
+
+    public LineSketch getSketch(String name) {
+        return sketches.get(name);
+    }
+
+    /**
+     * @return  sketches of the groups in the order of the arguments
+     */
+    public LineSketch[] getSketches(LineGroup... groups) {
+        final LineSketch[] result = new LineSketch[groups.length];
+        for (int i = 0; i < groups.length; ++i) {
+            result[i] = sketches.get(groups[i].getName());
+            if (result[i] == null) {
+                throw new IllegalStateException("Group " + groups[i].getName() + " has not been sketched");
+            }
+        }
+        return result;
+    }
+}
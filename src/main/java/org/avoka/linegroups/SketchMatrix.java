@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Estimated Jaccard and containment of every pair of sketched groups, used to decide
+ * which groups are worth arranging together before running the arrangement.
+ *
+ * Groups end up in the same batch if one of them is estimated to contain at least
+ * the threshold ratio of the lines of the other one, directly or through a chain
+ * of such groups.
+ *
+ * @author Alexey Loubyansky
+ */
+public class SketchMatrix {
+
+    public static SketchMatrix of(LineGroup... groups) {
+        return of(null, groups);
+    }
+
+    public static SketchMatrix of(ForkJoinPool pool, LineGroup... groups) {
+        final LineSketch[] sketches = new LineSketch[groups.length];
+        Util.forEach(pool, groups.length, i -> sketches[i] = LineSketch.of(groups[i]));
+        return new SketchMatrix(pool, sketches);
+    }
+
+    private final LineSketch[] sketches;
+    private final double[][] jaccard;
+    /** containment[i][j] is the ratio of the lines of i found in j */
+    private final double[][] containment;
+
+    public SketchMatrix(ForkJoinPool pool, LineSketch... sketches) {
+        this.sketches = sketches.clone();
+        final int n = sketches.length;
+        jaccard = new double[n][n];
+        containment = new double[n][n];
+        Util.forEach(pool, n, i -> {
+            jaccard[i][i] = 1;
+            containment[i][i] = 1;
+            for (int j = i + 1; j < n; ++j) {
+                final double estimate = sketches[i].jaccard(sketches[j]);
+                jaccard[i][j] = estimate;
+                containment[i][j] = sketches[i].containment(sketches[j], estimate);
+            }
+        });
+        for (int i = 0; i < n; ++i) {
+            for (int j = i + 1; j < n; ++j) {
+                jaccard[j][i] = jaccard[i][j];
+                containment[j][i] = sketches[j].containment(sketches[i], jaccard[i][j]);
+            }
+        }
+    }
+
+    public int size() {
+        return sketches.length;
+    }
+
+    public LineSketch getSketch(int i) {
+        return sketches[i];
+    }
+
+    public double getJaccard(int i, int j) {
+        return jaccard[i][j];
+    }
+
+    /**
+     * @return  estimated ratio of the lines of the i-th group found in the j-th one
+     */
+    public double getContainment(int i, int j) {
+        return containment[i][j];
+    }
+
+    /**
+     * Clusters the sketched groups into batches, each listing the indexes of its groups
+     * in ascending order. The batches are ordered by their first group.
+     */
+    public List<int[]> cluster(double threshold) {
+        final int n = sketches.length;
+        final int[] parents = new int[n];
+        for (int i = 0; i < n; ++i) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < n; ++i) {
+            for (int j = i + 1; j < n; ++j) {
+                if (containment[i][j] >= threshold || containment[j][i] >= threshold) {
+                    final int ri = root(parents, i);
+                    final int rj = root(parents, j);
+                    if (ri != rj) {
+                        parents[Math.max(ri, rj)] = Math.min(ri, rj);
+                    }
+                }
+            }
+        }
+        final Map<Integer, List<Integer>> clusters = new LinkedHashMap<>();
+        for (int i = 0; i < n; ++i) {
+            clusters.computeIfAbsent(root(parents, i), r -> new ArrayList<>()).add(i);
+        }
+        final List<int[]> batches = new ArrayList<>(clusters.size());
+        for (List<Integer> cluster : clusters.values()) {
+            final int[] batch = new int[cluster.size()];
+            for (int i = 0; i < batch.length; ++i) {
+                batch[i] = cluster.get(i);
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Clusters the groups the matrix was built for into batches to be arranged separately.
+     */
+    public List<LineGroup[]> batch(double threshold, LineGroup... groups) {
+        if (groups.length != sketches.length) {
+            throw new IllegalStateException("Expected " + sketches.length + " groups but got " + groups.length);
+        }
+        final List<LineGroup[]> batches = new ArrayList<>();
+        for (int[] cluster : cluster(threshold)) {
+            final LineGroup[] batch = new LineGroup[cluster.length];
+            for (int i = 0; i < batch.length; ++i) {
+                batch[i] = groups[cluster[i]];
+                if (!batch[i].getName().equals(sketches[cluster[i]].getName())) {
+                    throw new IllegalStateException("Expected group " + sketches[cluster[i]].getName() + " but got "
+                            + batch[i].getName());
+                }
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    public void report(PrintStream out) {
+        for (int i = 0; i < sketches.length; ++i) {
+            out.println(String.format("%d: %s", i, sketches[i]));
+        }
+        out.println("jaccard / containment of the row group in the column group:");
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < sketches.length; ++i) {
+            buf.setLength(0);
+            buf.append(String.format("%4d", i));
+            for (int j = 0; j < sketches.length; ++j) {
+                buf.append(String.format(" %.2f/%.2f", jaccard[i][j], containment[i][j]));
+            }
+            out.println(buf);
+        }
+    }
+
+    private static int root(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Report formats supported out of the box.
+ *
+ * @author Alexey Loubyansky
+ */
+public enum StandardReportFormat implements ReportFormat {
+
+    /**
+     * The listing of the groups with their lines as CLI commands and the tree of the groups they include.
+     */
+    CLI {
+        @Override
+        public String renderLine(int id, LineDictionary dictionary, CliRenderer renderer) {
+            // every line is rendered once, so the cache by line id would only cost memory
+            return renderer.render(dictionary.getLine(id));
+        }
+
+        @Override
+        public boolean listsNestedTree() {
+            return true;
+        }
+
+        @Override
+        public byte[] group(int index, String name, String[] nested, String[] lines) {
+            final StringBuilder buf = new StringBuilder();
+            buf.append("\nGROUP ").append(name).append('\n');
+            if (nested.length > 0) {
+                buf.append("  Includes:\n");
+                for (String nestedGroup : nested) {
+                    buf.append("    ").append(nestedGroup).append('\n');
+                }
+            }
+            if (lines.length > 0) {
+                buf.append(" Lines:\n");
+                for (String line : lines) {
+                    buf.append("  ").append(line).append('\n');
+                }
+            }
+            return buf.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    },
+
+    /**
+     * A JSON object with the array of the groups, each with its name, directly nested groups and lines.
+     */
+    JSON {
+        @Override
+        public byte[] begin(int groups) {
+            return "{\"groups\":[".getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] group(int index, String name, String[] nested, String[] lines) {
+            final StringBuilder buf = new StringBuilder();
+            if (index > 0) {
+                buf.append(',');
+            }
+            buf.append("\n{\"name\":");
+            appendString(name, buf);
+            buf.append(",\"nested\":");
+            appendArray(nested, buf);
+            buf.append(",\"lines\":");
+            appendArray(lines, buf);
+            buf.append('}');
+            return buf.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] end() {
+            return "\n]}\n".getBytes(StandardCharsets.UTF_8);
+        }
+    },
+
+    /**
+     * Little endian ints following {@link ArrangedFile}: the magic number, format version and number
+     * of groups, then the records of the groups. A record consists of the name, the number of
+     * the nested groups and their names, the number of the lines and the lines, all the strings
+     * written as the length followed by the UTF-8 bytes.
+     */
+    BINARY {
+        @Override
+        public byte[] begin(int groups) {
+            return ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(VERSION).putInt(groups)
+                    .array();
+        }
+
+        @Override
+        public byte[] group(int index, String name, String[] nested, String[] lines) {
+            final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            final byte[][] nestedBytes = encode(nested);
+            final byte[][] lineBytes = encode(lines);
+            final ByteBuffer buf = ByteBuffer.allocate(12 + nameBytes.length + size(nestedBytes) + size(lineBytes))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(nameBytes.length).put(nameBytes);
+            put(nestedBytes, buf);
+            put(lineBytes, buf);
+            return buf.array();
+        }
+    };
+
+    static final int MAGIC = 0x4C47524C;
+    static final int VERSION = 1;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    @Override
+    public byte[] begin(int groups) {
+        return EMPTY;
+    }
+
+    @Override
+    public byte[] end() {
+        return EMPTY;
+    }
+
+    private static void appendArray(String[] values, StringBuilder buf) {
+        buf.append('[');
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            appendString(values[i], buf);
+        }
+        buf.append(']');
+    }
+
+    private static void appendString(String value, StringBuilder buf) {
+        buf.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    buf.append("\\\"");
+                    break;
+                case '\\':
+                    buf.append("\\\\");
+                    break;
+                case '\n':
+                    buf.append("\\n");
+                    break;
+                case '\r':
+                    buf.append("\\r");
+                    break;
+                case '\t':
+                    buf.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        buf.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        buf.append(c);
+                    }
+            }
+        }
+        buf.append('"');
+    }
+
+    private static byte[][] encode(String[] values) {
+        final byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; ++i) {
+            bytes[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    private static int size(byte[][] bytes) {
+        int size = 0;
+        for (byte[] b : bytes) {
+            size += 4 + b.length;
+        }
+        return size;
+    }
+
+    private static void put(byte[][] bytes, ByteBuffer buf) {
+        buf.putInt(bytes.length);
+        for (byte[] b : bytes) {
+            buf.putInt(b.length).put(b);
+        }
+    }
+}
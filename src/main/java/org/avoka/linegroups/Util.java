@@ -16,14 +16,20 @@
  */
 package org.avoka.linegroups;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -31,171 +37,556 @@ import java.util.UUID;
  */
 public class Util {
 
-    private static class LinesInGroups {
+    /**
+     * Version of the arrangement, to be incremented whenever the same input may be arranged
+     * into different groups or group names, so that cached arrangements are not reused.
+     */
+    static final int VERSION = 1;
 
-        final Map<String, Set<String>> lineInGroups = new HashMap<>();
+    /**
+     * Maps each line id to its membership signature, i.e. the indexes of the groups that contain the line.
+     */
+    static class LinesInGroups {
 
-        public void register(String line, LineGroup group) {
-            Set<String> set = lineInGroups.get(line);
-            if (set == null) {
-                lineInGroups.put(line, Collections.singleton(group.getName()));
-            } else {
-                if (set.size() == 1) {
-                    set = new HashSet<>(set);
-                    lineInGroups.put(line, set);
-                }
-                set.add(group.getName());
-            }
+        BitSet[] lineInGroups;
+
+        LinesInGroups(int linesTotal) {
+            lineInGroups = new BitSet[linesTotal];
         }
 
-        public void unregister(String line, String groupName) {
-            Set<String> set = lineInGroups.get(line);
-            if (!set.contains(groupName)) {
-                return;
+        /**
+         * Replaces the signature of the line growing the index if necessary.
+         */
+        public void setSignature(int line, BitSet signature) {
+            if (line >= lineInGroups.length) {
+                lineInGroups = Arrays.copyOf(lineInGroups, Math.max(line + 1, lineInGroups.length << 1));
             }
-            switch (set.size()) {
-                case 1:
-                    lineInGroups.remove(line);
-                    break;
-                case 2:
-                    for (String str : set) {
-                        if (!str.equals(groupName)) {
-                            set = Collections.singleton(str);
-                            break;
-                        }
-                    }
-                    lineInGroups.put(line, set);
-                    break;
-                default:
-                    set.remove(groupName);
+            lineInGroups[line] = signature;
+        }
+
+        public void register(int line, int groupIndex) {
+            BitSet signature = lineInGroups[line];
+            if (signature == null) {
+                signature = new BitSet();
+                lineInGroups[line] = signature;
             }
+            signature.set(groupIndex);
+        }
+
+        public BitSet getSignature(int line) {
+            return line < lineInGroups.length ? lineInGroups[line] : null;
         }
 
-        public Set<String> getGroupNames(String line) {
-            return lineInGroups.get(line);
+        /**
+         * Buckets the registered line ids from the given range by their signatures.
+         */
+        public Map<BitSet, BitSet> partition(int from, int to) {
+            final Map<BitSet, BitSet> partitions = new HashMap<>();
+            for (int line = from; line < to; ++line) {
+                final BitSet signature = lineInGroups[line];
+                if (signature == null) {
+                    continue;
+                }
+                BitSet lines = partitions.get(signature);
+                if (lines == null) {
+                    lines = new BitSet();
+                    partitions.put(signature, lines);
+                }
+                lines.set(line);
+            }
+            return partitions;
         }
     }
 
     public static Map<String, LineGroup> arrange(LineGroup... groups) {
+        return arrange(ArrangeOptions.builder().build(), groups);
+    }
+
+    public static Map<String, LineGroup> arrange(ArrangeListener listener, LineGroup... groups) {
+        return arrange(ArrangeOptions.builder().listener(listener).build(), groups);
+    }
+
+    /**
+     * Arranges the groups using the workers of the pool for registration, signature
+     * computation and group rebuilding. The result is identical to that of {@link #arrange(LineGroup...)}.
+     */
+    public static Map<String, LineGroup> arrangeParallel(ForkJoinPool pool, LineGroup... groups) {
+        return arrange(ArrangeOptions.builder().pool(pool).build(), groups);
+    }
+
+    public static Map<String, LineGroup> arrangeParallel(ForkJoinPool pool, ArrangeListener listener, LineGroup... groups) {
+        return arrange(ArrangeOptions.builder().pool(pool).listener(listener).build(), groups);
+    }
+
+    public static Map<String, LineGroup> arrange(ArrangeOptions options, LineGroup... groups) {
+        final ForkJoinPool pool = options.getPool();
+        final ArrangeListener listener = options.getListener();
+        if (groups.length == 0) {
+            return new LinkedHashMap<>();
+        }
+        final LineDictionary dictionary = checkDictionary(groups);
+        final int linesTotal = dictionary.size();
+
+        listener.phaseStarted(ArrangePhase.CONTAINMENT);
+        long phaseStart = System.nanoTime();
+        nestContained(pool, listener, groups);
+        phaseStart = completed(listener, ArrangePhase.CONTAINMENT, phaseStart, ArrangePhase.REGISTRATION);
+
+        final Map<String, Integer> groupIndexes = indexGroups(groups);
+
+        // register the lines in chunks of line ids so that the workers never touch the same signature
+        final LinesInGroups linesInGroups = new LinesInGroups(linesTotal);
+        final int chunks = pool == null ? 1 : Math.max(1, Math.min(pool.getParallelism() * 4, linesTotal / 1024));
+        final int chunkSize = (linesTotal + chunks - 1) / chunks;
+        final List<Map<BitSet, BitSet>> chunkPartitions = new ArrayList<>(Collections.nCopies(chunks, null));
+        forEach(pool, chunks, chunk -> {
+            final int from = chunk * chunkSize;
+            final int to = Math.min(linesTotal, from + chunkSize);
+            for (int i = 0; i < groups.length; ++i) {
+                final int[] lines = groups[i].lineIds();
+                int l = Arrays.binarySearch(lines, from);
+                for (l = l < 0 ? -l - 1 : l; l < lines.length && lines[l] < to; ++l) {
+                    linesInGroups.register(lines[l], i);
+                }
+            }
+            chunkPartitions.set(chunk, linesInGroups.partition(from, to));
+        });
+
+        // every distinct signature becomes a group holding exactly the lines with that signature
+        final Map<BitSet, BitSet> partitions = new HashMap<>();
+        for (Map<BitSet, BitSet> chunkPartition : chunkPartitions) {
+            mergePartitions(partitions, chunkPartition);
+        }
+
+        phaseStart = completed(listener, ArrangePhase.REGISTRATION, phaseStart, ArrangePhase.CLOSURES);
+
+        // the closure of a group is the signature shared by all of its lines, i.e. the groups that include it
+        final BitSet[] closures = new BitSet[groups.length];
+        forEach(pool, groups.length, i -> closures[i] = closure(linesInGroups, groups[i].lineIds()));
+        addClosures(partitions, closures);
+        if (options.isBudgeted()) {
+            select(options, partitions, closures);
+        }
+
+        phaseStart = completed(listener, ArrangePhase.CLOSURES, phaseStart, ArrangePhase.ORDERING);
+
+        final Map<String, LineGroup> lineGroups = build(pool, listener, groups, groupIndexes,
+                Collections.singletonList(partitions), Collections.singletonList(closures), phaseStart);
+        int registeredLines = 0;
+        for (LineGroup group : groups) {
+            registeredLines += group.size();
+        }
+        listener.arranged(groups.length, linesInGroups.lineInGroups.length, registeredLines, partitions.size(),
+                lineGroups.size());
+        return lineGroups;
+    }
+
+    /**
+     * @return  the dictionary of the groups, which must all use the same one
+     */
+    static LineDictionary checkDictionary(LineGroup[] groups) {
+        final LineDictionary dictionary = groups[0].getDictionary();
+        for (LineGroup group : groups) {
+            if (group.getDictionary() != dictionary) {
+                throw new IllegalStateException("Group " + group.getName() + " uses a different line dictionary");
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Orders the groups by size and replaces the groups fully including other groups
+     * with copies nesting those and keeping only the rest of their lines.
+     * Groups with the same lines and nested groups are rejected as identical.
+     */
+    static void nestContained(ForkJoinPool pool, ArrangeListener listener, LineGroup[] groups) {
+        final LineDictionary dictionary = groups[0].getDictionary();
+        final int linesTotal = dictionary.size();
 
         // order by line numbers
-        Arrays.sort(groups, (o1, o2) -> o2.getLines().size() - o1.getLines().size());
+        Arrays.sort(groups, (o1, o2) -> o2.size() - o1.size());
 
         // check whether there are original groups that are fully included
-        for(int i = 0; i < groups.length - 1; ++i) {
-            LineGroup bigGroup = groups[i];
+        final LineGroup[] originals = groups.clone();
+        final GroupBits[] bits = new GroupBits[groups.length];
+        forEach(pool, groups.length, i -> bits[i] = new GroupBits(originals[i].lineIds(), linesTotal));
+        forEach(pool, groups.length - 1, i -> {
+            // the lines left in the big group are copied on the first nested group and then removed in place
+            GroupBits bigBits = bits[i];
+            LineGroup.Builder bigBuilder = null;
+            int nested = 0;
             for (int j = i + 1; j < groups.length; ++j) {
-                LineGroup smallGroup = groups[j];
-                if (bigGroup.getLines().containsAll(smallGroup.getLines())) {
-                    final LineGroup.Builder bigBuilder = LineGroup.builder(bigGroup);
-                    for(String extractedLine : smallGroup.getLines()) {
-                        bigBuilder.removeLine(extractedLine);
+                if (bigBits.includes(bits[j])) {
+                    if (originals[i].size() == originals[j].size() && originals[i].size() > 0
+                            && originals[i].getNestedGroupNames().equals(originals[j].getNestedGroupNames())) {
+                        throw new IllegalStateException("Groups " + originals[i].getName() + " and "
+                                + originals[j].getName() + " appear to be identical");
+                    }
+                    if (bigBuilder == null) {
+                        bigBuilder = LineGroup.builder(originals[i].getName(), dictionary);
+                        for (String nestedGroup : originals[i].getNestedGroupNames()) {
+                            bigBuilder.nestGroup(nestedGroup);
+                        }
+                        bigBits = new GroupBits(bits[i]);
                     }
-                    bigBuilder.nestGroup(smallGroup.getName());
-                    bigGroup = bigBuilder.build();
-                    groups[i] = bigGroup;
+                    bigBuilder.nestGroup(originals[j].getName());
+                    bigBits.remove(bits[j]);
+                    ++nested;
                 }
             }
+            if (bigBuilder != null) {
+                groups[i] = bigBuilder.setLines(bigBits.toBitSet()).build();
+                listener.containmentNested(groups[i].getName(), nested, originals[i].size() - groups[i].size());
+            }
+        });
+    }
+
+    /**
+     * @return  the indexes of the groups by their names
+     */
+    static Map<String, Integer> indexGroups(LineGroup[] groups) {
+        final Map<String, Integer> groupIndexes = new HashMap<>(groups.length);
+        for (int i = 0; i < groups.length; ++i) {
+            if (groupIndexes.put(groups[i].getName(), i) != null) {
+                throw new IllegalStateException("Duplicate group name " + groups[i].getName());
+            }
         }
+        return groupIndexes;
+    }
 
-        final LinesInGroups linesInGroups = new LinesInGroups();
-        final Map<String, LineGroup> lineGroups = new HashMap<>(groups.length);
-        for (LineGroup group : groups) {
-            if (lineGroups.put(group.getName(), group) != null) {
-                throw new IllegalStateException("Duplicate group name " + group.getName());
+    /**
+     * Adds the lines of the signatures of the source to those of the target.
+     */
+    static void mergePartitions(Map<BitSet, BitSet> target, Map<BitSet, BitSet> source) {
+        for (Map.Entry<BitSet, BitSet> entry : source.entrySet()) {
+            final BitSet lines = target.get(entry.getKey());
+            if (lines == null) {
+                target.put(entry.getKey(), entry.getValue());
+            } else {
+                lines.or(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return  the signature shared by all the lines or null if there are no lines
+     */
+    static BitSet closure(LinesInGroups linesInGroups, int[] lines) {
+        BitSet closure = null;
+        for (int line : lines) {
+            if (closure == null) {
+                closure = (BitSet) linesInGroups.getSignature(line).clone();
+            } else {
+                closure.and(linesInGroups.getSignature(line));
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Adds the closures without lines of their own as empty signatures.
+     */
+    static void addClosures(Map<BitSet, BitSet> partitions, BitSet[] closures) {
+        for (BitSet closure : closures) {
+            if (closure != null && !partitions.containsKey(closure)) {
+                partitions.put(closure, new BitSet());
             }
-            for (String line : group.getLines()) {
-                linesInGroups.register(line, group);
+        }
+    }
+
+    /**
+     * Builds the groups of the signatures of every scope and assembles them with the original groups.
+     * The signatures of a scope nest only the signatures of the same scope. An original group takes over
+     * its closure if it has lines in only one scope, otherwise it nests its closures in all the scopes.
+     *
+     * @param groups  the original groups after {@link #nestContained(ForkJoinPool, ArrangeListener, LineGroup[])}
+     * @param scopes  lines of the signatures of every scope including the closures, taken over by the groups
+     * @param scopeClosures  closures of the original groups in every scope, null if a group has no lines in it
+     */
+    static Map<String, LineGroup> build(ForkJoinPool pool, ArrangeListener listener, LineGroup[] groups,
+            Map<String, Integer> groupIndexes, List<Map<BitSet, BitSet>> scopes, List<BitSet[]> scopeClosures,
+            long phaseStart) {
+        final LineDictionary dictionary = groups[0].getDictionary();
+        final int[] closureCounts = new int[groups.length];
+        for (BitSet[] closures : scopeClosures) {
+            for (int i = 0; i < groups.length; ++i) {
+                if (closures[i] != null) {
+                    ++closureCounts[i];
+                }
             }
         }
 
-        Set<String> doneGroups = new HashSet<>();
-        boolean extracted = true;
-        while (extracted) {
-            extracted = false;
-            LineGroup.Builder lineGroupBuilder = null;
-            Set<String> groupNames = null;
-            final Set<String> processedLines = new HashSet<>();
-            for (LineGroup group : lineGroups.values()) {
-                if (doneGroups.contains(group.getName())) {
+        // an original group takes over its closure unless that would make other groups include its nested groups
+        final List<Map<BitSet, String>> scopeNames = new ArrayList<>(scopes.size());
+        final BitSet[][] scopeSignatures = new BitSet[scopes.size()][];
+        final List<Map<BitSet, Integer>> scopeIndexes = new ArrayList<>(scopes.size());
+        final String[][] scopeNodeNames = new String[scopes.size()][];
+        for (int s = 0; s < scopes.size(); ++s) {
+            final BitSet[] closures = scopeClosures.get(s);
+            final Map<BitSet, String> names = new HashMap<>(scopes.get(s).size());
+            for (int i = 0; i < groups.length; ++i) {
+                final BitSet closure = closures[i];
+                if (closure == null || closureCounts[i] > 1 || closure.cardinality() > 1 && groups[i].hasNestedGroups()) {
                     continue;
                 }
-                for (String line : group.getLines()) {
-                    if (processedLines.contains(line)) {
-                        continue;
+                final String previous = names.put(closure, groups[i].getName());
+                if (previous != null) {
+                    throw new IllegalStateException("Groups " + previous + " and " + groups[i].getName()
+                            + " appear to be identical");
+                }
+            }
+            scopeNames.add(names);
+
+            // order the signatures by containment, a signature nests its minimal strict supersets
+            final BitSet[] signatures = scopes.get(s).keySet().toArray(new BitSet[scopes.get(s).size()]);
+            Arrays.sort(signatures, Util::compareSignatures);
+            final Map<BitSet, Integer> signatureIndexes = new HashMap<>(signatures.length);
+            final String[] nodeNames = new String[signatures.length];
+            for (int i = 0; i < signatures.length; ++i) {
+                signatureIndexes.put(signatures[i], i);
+                nodeNames[i] = names.get(signatures[i]);
+            }
+            scopeSignatures[s] = signatures;
+            scopeIndexes.add(signatureIndexes);
+            scopeNodeNames[s] = nodeNames;
+        }
+
+        phaseStart = completed(listener, ArrangePhase.ORDERING, phaseStart, ArrangePhase.BUILD);
+
+        final LineGroup[][] scopeRebuilt = new LineGroup[scopes.size()][];
+        for (int s = 0; s < scopes.size(); ++s) {
+            final Map<BitSet, BitSet> partitions = scopes.get(s);
+            final BitSet[] signatures = scopeSignatures[s];
+            final Map<BitSet, Integer> signatureIndexes = scopeIndexes.get(s);
+            final String[] nodeNames = scopeNodeNames[s];
+            // new groups are named after their content, so the nested groups, i.e. the bigger signatures, are built first
+            final LineGroup[] rebuilt = new LineGroup[signatures.length];
+            int levelEnd = signatures.length;
+            while (levelEnd > 0) {
+                final int cardinality = signatures[levelEnd - 1].cardinality();
+                int levelStart = levelEnd - 1;
+                while (levelStart > 0 && signatures[levelStart - 1].cardinality() == cardinality) {
+                    --levelStart;
+                }
+                final int offset = levelStart;
+                listener.levelStarted(cardinality);
+                final long levelTime = System.nanoTime();
+                forEach(pool, levelEnd - levelStart, l -> {
+                    final int i = offset + l;
+                    final String name = nodeNames[i];
+                    // the partitions are not used after this point, so the groups take over their bitsets
+                    final LineGroup.Builder builder = LineGroup.builder(name, dictionary)
+                            .setLines(partitions.get(signatures[i]));
+                    for (BitSet nested : nestedSignatures(signatures, i)) {
+                        builder.nestGroup(nodeNames[signatureIndexes.get(nested)]);
                     }
-                    processedLines.add(line);
-                    groupNames = linesInGroups.getGroupNames(line);
-                    if (groupNames.size() > 1) {
-                        groupNames = new HashSet<>(groupNames);
-                        for (String otherLine : group.getLines()) {
-                            if (processedLines.contains(otherLine)) {
-                                continue;
-                            }
-                            if (linesInGroups.getGroupNames(otherLine).containsAll(groupNames)) {
-                                // form a group
-                                if (lineGroupBuilder == null) {
-                                    lineGroupBuilder = LineGroup.builder(UUID.randomUUID().toString()).addLine(line);
-                                }
-                                lineGroupBuilder.addLine(otherLine);
+                    if (name == null) {
+                        builder.nameByContent();
+                    } else {
+                        final Integer original = groupIndexes.get(name);
+                        if (original != null) {
+                            for (String nestedGroup : groups[original].getNestedGroupNames()) {
+                                builder.nestGroup(nestedGroup);
                             }
                         }
-                        if (lineGroupBuilder != null) {
-                            break;
-                        }
                     }
+                    rebuilt[i] = builder.build();
+                    nodeNames[i] = rebuilt[i].getName();
+                });
+                int levelLines = 0;
+                for (int i = levelStart; i < levelEnd; ++i) {
+                    levelLines += rebuilt[i].size();
                 }
+                listener.levelBuilt(cardinality, levelEnd - levelStart, levelLines, System.nanoTime() - levelTime);
+                levelEnd = levelStart;
+            }
+            scopeRebuilt[s] = rebuilt;
+        }
 
-                if (lineGroupBuilder != null) {
-                    break;
+        phaseStart = completed(listener, ArrangePhase.BUILD, phaseStart, ArrangePhase.ASSEMBLY);
+
+        int rebuiltTotal = 0;
+        for (LineGroup[] rebuilt : scopeRebuilt) {
+            rebuiltTotal += rebuilt.length;
+        }
+        final Map<String, LineGroup> lineGroups = new LinkedHashMap<>(groups.length + rebuiltTotal);
+        for (int i = 0; i < groups.length; ++i) {
+            final LineGroup group = groups[i];
+            if (closureCounts[i] == 0) {
+                lineGroups.put(group.getName(), group);
+                continue;
+            }
+            LineGroup owned = null;
+            final LineGroup.Builder builder = LineGroup.builder(group.getName(), dictionary);
+            for (int s = 0; s < scopes.size(); ++s) {
+                final BitSet closure = scopeClosures.get(s)[i];
+                if (closure == null) {
+                    continue;
+                }
+                final int index = scopeIndexes.get(s).get(closure);
+                if (group.getName().equals(scopeNames.get(s).get(closure))) {
+                    owned = scopeRebuilt[s][index];
                 } else {
-                    doneGroups.add(group.getName());
+                    builder.nestGroup(scopeNodeNames[s][index]);
                 }
             }
+            if (owned != null) {
+                lineGroups.put(group.getName(), owned);
+            } else {
+                for (String nestedGroup : group.getNestedGroupNames()) {
+                    builder.nestGroup(nestedGroup);
+                }
+                lineGroups.put(group.getName(), builder.build());
+            }
+        }
+        for (LineGroup[] rebuilt : scopeRebuilt) {
+            for (LineGroup newGroup : rebuilt) {
+                putNewGroup(lineGroups, newGroup);
+            }
+        }
+        completed(listener, ArrangePhase.ASSEMBLY, phaseStart, null);
+        return lineGroups;
+    }
 
-            if (lineGroupBuilder != null) {
-                LineGroup newGroup = lineGroupBuilder.build();
-
-                final Map<String, LineGroup.Builder> rebuilders = new HashMap<>(groupNames.size());
-                boolean originalNested = false;
+    /**
+     * Keeps the shared signatures saving the most within the limits of the options.
+     * The lines of the other shared signatures are moved to the maximal closures of the groups sharing them,
+     * each group includes at least one of them and the closures are included only by groups of the signature.
+     */
+    static void select(ArrangeOptions options, Map<BitSet, BitSet> partitions, BitSet[] closures) {
+        final Set<BitSet> closureSet = new HashSet<>(Arrays.asList(closures));
+        final List<BitSet> candidates = new ArrayList<>();
+        for (BitSet signature : partitions.keySet()) {
+            if (signature.cardinality() > 1 && !closureSet.contains(signature)) {
+                candidates.add(signature);
+            }
+        }
+        final Map<BitSet, Long> savings = new HashMap<>(candidates.size());
+        for (BitSet signature : candidates) {
+            savings.put(signature, (long) partitions.get(signature).cardinality() * (signature.cardinality() - 1));
+        }
+        candidates.sort((o1, o2) -> {
+            final int c = Long.compare(savings.get(o2), savings.get(o1));
+            return c != 0 ? c : compareSignatures(o1, o2);
+        });
 
-                for (String groupName : groupNames) {
-                    final LineGroup group = lineGroups.get(groupName);
-                    if (group.getLines().size() == newGroup.getLines().size() && !group.hasNestedGroups()) {
-                        if (originalNested) {
-                            throw new IllegalStateException("Groups " + newGroup.getName() + " and " + group.getName()
-                                    + " appear to be identical");
-                        }
-                        originalNested = true;
-                        newGroup = group;
-                        continue;
+        int extracted = 0;
+        for (BitSet signature : candidates) {
+            if (extracted < options.getMaxExtractions() && partitions.get(signature).cardinality() >= options.getMinGroupSize()) {
+                ++extracted;
+                continue;
+            }
+            final BitSet lines = partitions.remove(signature);
+            final List<BitSet> targets = new ArrayList<>();
+            for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1)) {
+                final BitSet closure = closures[i];
+                boolean maximal = true;
+                for (int j = 0; j < targets.size(); ++j) {
+                    final BitSet target = targets.get(j);
+                    if (includes(target, closure)) {
+                        maximal = false;
+                        break;
                     }
-                    final LineGroup.Builder rebuilder = LineGroup.builder(group);
-                    rebuilders.put(groupName, rebuilder);
-                    for (String extractedLine : newGroup.getLines()) {
-                        rebuilder.removeLine(extractedLine);
-                        linesInGroups.unregister(extractedLine, groupName);
+                    if (includes(closure, target)) {
+                        targets.remove(j--);
                     }
                 }
-
-                for (LineGroup.Builder rebuilder : rebuilders.values()) {
-                    rebuilder.nestGroup(newGroup.getName());
-                    final LineGroup group = rebuilder.build();
-                    lineGroups.put(group.getName(), group);
+                if (maximal) {
+                    targets.add(closure);
                 }
+            }
+            for (BitSet target : targets) {
+                partitions.get(target).or(lines);
+            }
+        }
+    }
 
-                if (!originalNested) {
-                    lineGroups.put(newGroup.getName(), newGroup);
-                    for (String line : newGroup.getLines()) {
-                        linesInGroups.register(line, newGroup);
-                    }
-                    // doneGroups.add(newGroup.getName());
+    /**
+     * Adds the new group unless it's already there, e.g. as the original owning it.
+     * A different group with the same name means two groups got the same content name.
+     */
+    static void putNewGroup(Map<String, LineGroup> groups, LineGroup group) {
+        final LineGroup present = groups.putIfAbsent(group.getName(), group);
+        if (present != null && present != group && (!Arrays.equals(present.lineIds(), group.lineIds())
+                || !present.getNestedGroupNames().equals(group.getNestedGroupNames()))) {
+            throw new IllegalStateException("Groups with different content are both named " + group.getName());
+        }
+    }
+
+    /**
+     * Reports the phase started at the given time, starts the next one unless it's null
+     * and returns the time the next phase starts.
+     */
+    static long completed(ArrangeListener listener, ArrangePhase phase, long start, ArrangePhase next) {
+        final long end = System.nanoTime();
+        listener.phaseCompleted(phase, end - start);
+        if (next != null) {
+            listener.phaseStarted(next);
+        }
+        return end;
+    }
+
+    /**
+     * Selects the minimal strict supersets of the signature at the given index
+     * among the signatures sorted with {@link #compareSignatures(BitSet, BitSet)}.
+     */
+    static List<BitSet> nestedSignatures(BitSet[] signatures, int index) {
+        final BitSet signature = signatures[index];
+        final int cardinality = signature.cardinality();
+        final List<BitSet> nested = new ArrayList<>();
+        for (int j = index + 1; j < signatures.length; ++j) {
+            final BitSet candidate = signatures[j];
+            if (candidate.cardinality() == cardinality || !includes(candidate, signature)) {
+                continue;
+            }
+            boolean minimal = true;
+            for (BitSet other : nested) {
+                if (includes(candidate, other)) {
+                    minimal = false;
+                    break;
                 }
+            }
+            if (minimal) {
+                nested.add(candidate);
+            }
+        }
+        return nested;
+    }
+
+    /**
+     * Orders signatures by cardinality and then by their lowest differing group index.
+     */
+    static int compareSignatures(BitSet o1, BitSet o2) {
+        final int c = o1.cardinality() - o2.cardinality();
+        if (c != 0) {
+            return c;
+        }
+        int i1 = o1.nextSetBit(0);
+        int i2 = o2.nextSetBit(0);
+        while (i1 == i2 && i1 >= 0) {
+            i1 = o1.nextSetBit(i1 + 1);
+            i2 = o2.nextSetBit(i2 + 1);
+        }
+        return i1 - i2;
+    }
 
-                extracted = true;
+    static void forEach(ForkJoinPool pool, int n, IntConsumer task) {
+        if (pool == null) {
+            for (int i = 0; i < n; ++i) {
+                task.accept(i);
             }
+        } else {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(task)).join();
         }
-        return lineGroups;
+    }
+
+    static boolean includes(BitSet superset, BitSet subset) {
+        for (int i = subset.nextSetBit(0); i >= 0; i = subset.nextSetBit(i + 1)) {
+            if (!superset.get(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static void main(String[] args) throws Exception {
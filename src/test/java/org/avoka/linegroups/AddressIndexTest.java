@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class AddressIndexTest {
+
+    private static final String LOGGING = "{\"operation\":\"add\",\"address\":[{\"subsystem\":\"logging\"}]}";
+    private static final String CONSOLE = "{\"operation\":\"add\",\"address\":[{\"subsystem\":\"logging\"},{\"console-handler\":\"CONSOLE\"}]}";
+    private static final String PATH = "{\"operation\":\"add\",\"address\":[{\"path\":\"a/b\"}],\"path\":\"x\"}";
+    private static final String PATH_A = "{\"operation\":\"add\",\"address\":[{\"path\":\"a\"},{\"b\":\"c\"}]}";
+    private static final String ROOT = "{\"operation\":\"reload\"}";
+
+    @Test
+    public void testQueries() {
+        final LineDictionary dictionary = new LineDictionary();
+        final Map<String, LineGroup> groups = new LinkedHashMap<>();
+        groups.put("logging", LineGroup.builder("logging", dictionary).addLine(LOGGING).addLine(CONSOLE).build());
+        groups.put("paths", LineGroup.builder("paths", dictionary).addLine(PATH).addLine(PATH_A).addLine("not an op").build());
+        groups.put("console", LineGroup.builder("console", dictionary).addLine(CONSOLE).build());
+        groups.put("server", LineGroup.builder("server", dictionary).addLine(ROOT).nestGroup("logging").build());
+        groups.put("all", LineGroup.builder("all", dictionary).nestGroup("server").nestGroup("paths").build());
+        final AddressIndex index = new AddressIndex(groups);
+
+        assertEquals(names("logging", "paths", "console", "server"), index.getGroups());
+        assertEquals(names("logging", "console"), index.getGroups("subsystem", "logging"));
+        assertEquals(names("logging", "console", "server", "all"), index.getIncludingGroups("subsystem", "logging"));
+        assertEquals(names("logging", "console"), index.getGroups("subsystem", "logging", "console-handler", "CONSOLE"));
+        assertEquals(Collections.emptySet(), index.getGroups("subsystem", "undertow"));
+
+        // a slash in a value is not an address separator
+        assertEquals(names("paths"), index.getGroups("path", "a/b"));
+        assertArrayEquals(new int[] {dictionary.getId(PATH)}, index.getLineIds("path", "a/b"));
+        assertArrayEquals(new int[] {dictionary.getId(PATH_A)}, index.getLineIds("path", "a"));
+        final int[] all = {dictionary.getId(LOGGING), dictionary.getId(CONSOLE), dictionary.getId(PATH),
+                dictionary.getId(PATH_A), dictionary.getId(ROOT)};
+        Arrays.sort(all);
+        assertArrayEquals(all, index.getLineIds());
+
+        assertEquals(names("logging", "console"), index.getGroupsOfOp(CONSOLE));
+        assertEquals(names("logging", "console", "server", "all"), index.getIncludingGroupsOfOp(CONSOLE));
+        assertEquals(names("server"), index.getGroupsOfOp(ROOT));
+        assertEquals(Collections.emptySet(), index.getGroupsOfOp("not an op"));
+        assertEquals(Collections.emptySet(), index.getGroupsOfOp("unknown"));
+    }
+
+    @Test
+    public void testParseAddress() {
+        assertArrayEquals(new String[0], AddressIndex.parseAddress(""));
+        assertArrayEquals(new String[0], AddressIndex.parseAddress("/"));
+        assertArrayEquals(new String[] {"subsystem", "logging", "console-handler", "CONSOLE"},
+                AddressIndex.parseAddress("/subsystem=logging/console-handler=CONSOLE"));
+        assertArrayEquals(new String[] {"path", "a/b"}, AddressIndex.parseAddress("path=a\\/b"));
+        assertArrayEquals(new String[] {"a=b", "c\\"}, AddressIndex.parseAddress("/a\\=b=c\\\\/"));
+        assertArrayEquals(new String[] {"a", ""}, AddressIndex.parseAddress("a="));
+        for (String invalid : new String[] {"subsystem", "/a=b/c", "a=b\\"}) {
+            try {
+                AddressIndex.parseAddress(invalid);
+                fail(invalid + " was parsed");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+    private static Set<String> names(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+}
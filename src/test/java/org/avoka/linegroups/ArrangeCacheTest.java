@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class ArrangeCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testCachedArrangementEqualsArranged() throws IOException {
+        final Path a = write("a.log", "1", "2", "3", "4");
+        final Path b = write("b.log", "3", "4", "5");
+        final Path c = write("c.log", "1", "5", "6");
+        final Path dir = tmp.newFolder("cache").toPath();
+
+        final ArrangeMetrics first = new ArrangeMetrics();
+        final LineDictionary dictionary = new LineDictionary();
+        final Map<String, LineGroup> arranged = new HashMap<>(new ArrangeCache(dir, first).arrange(dictionary, a, b, c));
+        assertEquals(0, first.getPhaseNanos(ArrangePhase.CACHE));
+
+        final ArrangeMetrics second = new ArrangeMetrics();
+        final Map<String, LineGroup> cached = new HashMap<>(new ArrangeCache(dir, second).arrange(dictionary, a, b, c));
+        assertTrue(second.getPhaseNanos(ArrangePhase.CACHE) > 0);
+        assertEquals(0, second.getPhaseNanos(ArrangePhase.BUILD));
+        assertEquals(arranged, cached);
+
+        // a fresh dictionary gets the same groups from the file
+        final LineDictionary other = new LineDictionary();
+        final Map<String, LineGroup> reloaded = new ArrangeCache(dir).arrange(other, a, b, c);
+        assertEquals(arranged.keySet(), reloaded.keySet());
+        for (LineGroup group : arranged.values()) {
+            final LineGroup copy = reloaded.get(group.getName());
+            assertEquals(group.getLines(), copy.getLines());
+            assertEquals(group.getNestedGroupNames(), copy.getNestedGroupNames());
+        }
+    }
+
+    @Test
+    public void testKeyCoversTheInputsAndOptions() throws IOException {
+        final Path a = write("a.log", "1", "2");
+        final Path b = write("b.log", "2", "3");
+        final ArrangeOptions defaults = ArrangeOptions.builder().build();
+        final String key = ArrangeCache.key(false, defaults, a, b);
+        assertEquals(key, ArrangeCache.key(false, a, b));
+        assertNotEquals(key, ArrangeCache.key(true, defaults, a, b));
+        assertNotEquals(key, ArrangeCache.key(false, defaults, b, a));
+        assertNotEquals(key, ArrangeCache.key(false, ArrangeOptions.builder().minGroupSize(2).build(), a, b));
+        assertNotEquals(key, ArrangeCache.key(false, ArrangeOptions.builder().maxExtractions(1).build(), a, b));
+        write("b.log", "2", "4");
+        assertNotEquals(key, ArrangeCache.key(false, defaults, a, b));
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.write(tmp.getRoot().toPath().resolve(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+}
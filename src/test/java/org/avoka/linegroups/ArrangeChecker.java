@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Brute-force oracle for arrangements, checking that
+ * <ul>
+ * <li>every nested group is present and there are no cycles;</li>
+ * <li>every input group resolves to its original lines;</li>
+ * <li>no line appears twice along a path of nested groups;</li>
+ * <li>no two groups have the same lines and nested groups;</li>
+ * <li>unless the options are budgeted, the lines of every group are exactly the lines
+ * contained by the same set of input groups.</li>
+ * </ul>
+ *
+ * It deliberately works with plain sets and walks every group's subtree from scratch
+ * instead of sharing the bitset machinery of the arrangement, so it is quadratic
+ * and meant for verification only.
+ *
+ * @author Alexey Loubyansky
+ */
+class ArrangeChecker {
+
+    /** the number of violations reported by the assertions */
+    private static final int MAX_REPORTED = 10;
+
+    /**
+     * Distinct groups of ops spread over nesting levels, a group at a deeper level includes
+     * all the lines of a random group from the previous level. On top of that each group gets
+     * a unique line and its own lines, about half of which are drawn from a pool shared by all the groups.
+     */
+    static LineGroup[] generate(LineDictionary dictionary, int groups, int linesPerGroup, long seed) {
+        final Random random = new Random(seed);
+        final int pool = Math.max(1, linesPerGroup * groups / 4);
+        final boolean skewed = random.nextBoolean();
+        final int depth = 1 + random.nextInt(4);
+        int nextUnique = pool;
+        final List<List<LineGroup>> levels = new ArrayList<>(depth);
+        for (int i = 0; i < depth; ++i) {
+            levels.add(new ArrayList<>());
+        }
+        final LineGroup[] result = new LineGroup[groups];
+        for (int g = 0; g < groups; ++g) {
+            final int level = g % depth;
+            final LineGroup.Builder builder = LineGroup.builder("group" + g, dictionary);
+            if (level > 0) {
+                final List<LineGroup> parents = levels.get(level - 1);
+                for (int line : parents.get(random.nextInt(parents.size())).lineIds()) {
+                    builder.addLine(line);
+                }
+            }
+            builder.addLine(op(nextUnique++));
+            for (int i = 1; i < linesPerGroup; ++i) {
+                final int op;
+                if (random.nextBoolean()) {
+                    final double r = random.nextDouble();
+                    op = (int) (pool * (skewed ? r * r * r : r));
+                } else {
+                    op = nextUnique++;
+                }
+                builder.addLine(op(op));
+            }
+            result[g] = builder.build();
+            levels.get(level).add(result[g]);
+        }
+        return result;
+    }
+
+    static String op(int i) {
+        return "{\"operation\":\"write-attribute\",\"address\":[{\"subsystem\":\"subsystem" + i % 7
+                + "\"},{\"resource\":\"resource" + i + "\"}],\"name\":\"attribute" + i % 5 + "\"}";
+    }
+
+    /**
+     * Fails listing the violations unless the arrangement is correct and, with the options
+     * not budgeted, every group holds exactly the lines of one set of including input groups.
+     */
+    static void assertArranged(LineGroup[] inputs, Map<String, LineGroup> arranged) {
+        assertArranged(inputs, arranged, null);
+    }
+
+    /**
+     * Same as {@link #assertArranged(LineGroup[], Map)} with the lines of different scopes,
+     * e.g. partitions, never in the same group.
+     */
+    static void assertArranged(LineGroup[] inputs, Map<String, LineGroup> arranged, IntFunction<Object> scope) {
+        final List<String> violations = check(inputs, arranged);
+        if (violations.isEmpty()) {
+            violations.addAll(checkBuckets(inputs, arranged, scope));
+        }
+        assertNoViolations(violations);
+    }
+
+    /**
+     * Fails listing the violations unless the arrangement is correct, for budgeted options.
+     */
+    static void assertValid(LineGroup[] inputs, Map<String, LineGroup> arranged) {
+        assertNoViolations(check(inputs, arranged));
+    }
+
+    private static void assertNoViolations(List<String> violations) {
+        if (violations.isEmpty()) {
+            return;
+        }
+        final StringBuilder buf = new StringBuilder();
+        buf.append(violations.size()).append(" violation(s) in the arrangement:");
+        for (int i = 0; i < Math.min(MAX_REPORTED, violations.size()); ++i) {
+            buf.append("\n  ").append(violations.get(i));
+        }
+        throw new AssertionError(buf.toString());
+    }
+
+    /**
+     * @return  descriptions of the violations, empty if the arrangement is correct
+     */
+    static List<String> check(LineGroup[] inputs, Map<String, LineGroup> arranged) {
+        final List<String> violations = new ArrayList<>();
+        for (LineGroup group : arranged.values()) {
+            for (String nested : group.getNestedGroupNames()) {
+                if (!arranged.containsKey(nested)) {
+                    violations.add("Group " + group.getName() + " includes unknown group " + nested);
+                }
+            }
+        }
+        if (!violations.isEmpty()) {
+            return violations;
+        }
+
+        final Map<String, Set<String>> descendants = new HashMap<>(arranged.size());
+        for (String name : arranged.keySet()) {
+            final Set<String> reachable = descendants(name, arranged);
+            if (reachable.contains(name)) {
+                violations.add("Group " + name + " includes itself");
+            }
+            descendants.put(name, reachable);
+        }
+        if (!violations.isEmpty()) {
+            return violations;
+        }
+
+        for (LineGroup group : arranged.values()) {
+            final Set<Integer> lines = lines(group);
+            for (String descendant : descendants.get(group.getName())) {
+                for (int line : arranged.get(descendant).lineIds()) {
+                    if (lines.contains(line)) {
+                        violations.add("Line " + line + " of " + group.getName() + " is also in its nested group "
+                                + descendant);
+                    }
+                }
+            }
+        }
+
+        final Map<String, LineGroup> inputsByName = new HashMap<>(inputs.length);
+        for (LineGroup input : inputs) {
+            inputsByName.put(input.getName(), input);
+        }
+        for (LineGroup input : inputs) {
+            if (!arranged.containsKey(input.getName())) {
+                violations.add("Input group " + input.getName() + " is missing");
+                continue;
+            }
+            final Set<Integer> expected = expectedLines(input.getName(), inputsByName, arranged, descendants);
+            final Set<Integer> actual = resolve(input.getName(), arranged, descendants);
+            if (!expected.equals(actual)) {
+                final Set<Integer> missing = new HashSet<>(expected);
+                missing.removeAll(actual);
+                final Set<Integer> extra = new HashSet<>(actual);
+                extra.removeAll(expected);
+                violations.add("Group " + input.getName() + " resolves to " + actual.size() + " instead of "
+                        + expected.size() + " lines, missing " + missing.size() + ", extra " + extra.size());
+            }
+        }
+
+        final Map<List<Object>, String> seen = new HashMap<>(arranged.size());
+        for (LineGroup group : arranged.values()) {
+            if (group.size() == 0 && !group.hasNestedGroups()) {
+                continue;
+            }
+            final String other = seen.putIfAbsent(content(group), group.getName());
+            if (other != null) {
+                violations.add("Groups " + other + " and " + group.getName() + " are identical");
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * Buckets the lines by the set of input groups containing them, and the scope if there is one,
+     * and checks that the lines of every group are exactly one bucket.
+     */
+    static List<String> checkBuckets(LineGroup[] inputs, Map<String, LineGroup> arranged, IntFunction<Object> scope) {
+        final Map<String, Set<String>> descendants = new HashMap<>(arranged.size());
+        for (String name : arranged.keySet()) {
+            descendants.put(name, descendants(name, arranged));
+        }
+        final Map<String, LineGroup> inputsByName = new HashMap<>(inputs.length);
+        for (LineGroup input : inputs) {
+            inputsByName.put(input.getName(), input);
+        }
+        final Map<Integer, Set<Object>> buckets = new HashMap<>();
+        for (LineGroup input : inputs) {
+            for (int line : expectedLines(input.getName(), inputsByName, arranged, descendants)) {
+                Set<Object> bucket = buckets.get(line);
+                if (bucket == null) {
+                    bucket = new HashSet<>();
+                    if (scope != null) {
+                        bucket.add(scope.apply(line));
+                    }
+                    buckets.put(line, bucket);
+                }
+                bucket.add(input.getName());
+            }
+        }
+        final Map<Set<Object>, Integer> bucketSizes = new HashMap<>();
+        for (Set<Object> bucket : buckets.values()) {
+            bucketSizes.merge(bucket, 1, Integer::sum);
+        }
+
+        final List<String> violations = new ArrayList<>();
+        final Map<Integer, String> owners = new HashMap<>();
+        for (LineGroup group : arranged.values()) {
+            for (int line : group.lineIds()) {
+                final String owner = owners.putIfAbsent(line, group.getName());
+                if (owner != null) {
+                    violations.add("Line " + line + " is in both " + owner + " and " + group.getName());
+                }
+            }
+            if (group.size() == 0) {
+                continue;
+            }
+            final Set<Object> bucket = buckets.get(group.lineIds()[0]);
+            if (bucket == null) {
+                violations.add("Group " + group.getName() + " has lines of no input group");
+                continue;
+            }
+            for (int line : group.lineIds()) {
+                if (!bucket.equals(buckets.get(line))) {
+                    violations.add("Group " + group.getName() + " mixes lines of different input groups");
+                    break;
+                }
+            }
+            if (group.size() != bucketSizes.get(bucket)) {
+                violations.add("Group " + group.getName() + " has " + group.size() + " of the "
+                        + bucketSizes.get(bucket) + " lines of input groups " + bucket);
+            }
+        }
+        return violations;
+    }
+
+    private static List<Object> content(LineGroup group) {
+        final List<Object> content = new ArrayList<>(2);
+        content.add(lines(group));
+        content.add(new HashSet<>(group.getNestedGroupNames()));
+        return content;
+    }
+
+    private static Set<Integer> lines(LineGroup group) {
+        final Set<Integer> lines = new HashSet<>(group.size());
+        for (int line : group.lineIds()) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static Set<String> descendants(String name, Map<String, LineGroup> groups) {
+        final Set<String> reachable = new LinkedHashSet<>();
+        final Deque<String> stack = new ArrayDeque<>(groups.get(name).getNestedGroupNames());
+        while (!stack.isEmpty()) {
+            final String next = stack.pop();
+            if (reachable.add(next)) {
+                stack.addAll(groups.get(next).getNestedGroupNames());
+            }
+        }
+        return reachable;
+    }
+
+    private static Set<Integer> resolve(String name, Map<String, LineGroup> groups, Map<String, Set<String>> descendants) {
+        final Set<Integer> lines = lines(groups.get(name));
+        for (String descendant : descendants.get(name)) {
+            lines.addAll(lines(groups.get(descendant)));
+        }
+        return lines;
+    }
+
+    /**
+     * The lines of the input group and of the groups it nested before the arrangement,
+     * groups nested by inputs that weren't inputs themselves are resolved in the arrangement.
+     */
+    private static Set<Integer> expectedLines(String name, Map<String, LineGroup> inputs,
+            Map<String, LineGroup> arranged, Map<String, Set<String>> descendants) {
+        final Set<Integer> lines = new HashSet<>();
+        final Set<String> visited = new HashSet<>();
+        final Deque<String> stack = new ArrayDeque<>();
+        stack.push(name);
+        while (!stack.isEmpty()) {
+            final String next = stack.pop();
+            if (!visited.add(next)) {
+                continue;
+            }
+            final LineGroup input = inputs.get(next);
+            if (input == null) {
+                if (arranged.containsKey(next)) {
+                    lines.addAll(resolve(next, arranged, descendants));
+                }
+            } else {
+                lines.addAll(lines(input));
+                stack.addAll(input.getNestedGroupNames());
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Arranges generated groups of growing sizes with every arrangement entry point and verifies
+ * the results with {@link ArrangeChecker}. If the arrange.budgetScale system property is set,
+ * e.g. with -Darrange.budgetScale=1 on the mvn command line, it also fails if an arrangement
+ * exceeds the time or peak heap budget of its size multiplied by the property value.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ArrangeScaleTest {
+
+    /** multiplier of the budgets, 0 if they are not enforced */
+    private static final double BUDGET_SCALE = Double.parseDouble(System.getProperty("arrange.budgetScale", "0"));
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSmall() {
+        assertWithinBudget(8, 1000, 1, 500, 128);
+    }
+
+    @Test
+    public void testMedium() {
+        assertWithinBudget(16, 5000, 2, 2000, 256);
+    }
+
+    @Test
+    public void testLarge() {
+        assertWithinBudget(32, 10000, 3, 5000, 512);
+    }
+
+    private static void assertWithinBudget(int groups, int linesPerGroup, long seed, long millisBudget, long heapBudgetMb) {
+        final LineDictionary dictionary = new LineDictionary();
+        final LineGroup[] inputs = ArrangeChecker.generate(dictionary, groups, linesPerGroup, seed);
+        final String size = groups + "x" + linesPerGroup;
+        assertWithinBudget(size + " arrange", inputs, Util::arrange, millisBudget, heapBudgetMb);
+        assertWithinBudget(size + " arrangeParallel", inputs, g -> Util.arrangeParallel(pool, g), millisBudget,
+                heapBudgetMb);
+        assertWithinBudget(size + " partitioned", inputs,
+                g -> PartitionedArranger.arrange(ArrangeOptions.builder().pool(pool).build(), true, g), millisBudget,
+                heapBudgetMb);
+        assertWithinBudget(size + " incremental", inputs, g -> {
+            final Arrangement arrangement = new Arrangement(dictionary);
+            for (LineGroup group : g) {
+                arrangement.add(group);
+            }
+            return arrangement.getGroups();
+        }, millisBudget, heapBudgetMb);
+    }
+
+    private static void assertWithinBudget(String description, LineGroup[] inputs,
+            Function<LineGroup[], Map<String, LineGroup>> arrange, long millisBudget, long heapBudgetMb) {
+        if (BUDGET_SCALE <= 0) {
+            ArrangeChecker.assertArranged(inputs, arrange.apply(inputs.clone()));
+            return;
+        }
+        System.gc();
+        final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean heapPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (heapPool.getType() == MemoryType.HEAP && heapPool.isValid()) {
+                heapPool.resetPeakUsage();
+                heapPools.add(heapPool);
+            }
+        }
+        final long start = System.nanoTime();
+        final Map<String, LineGroup> arranged = arrange.apply(inputs.clone());
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // the sum of the pool peaks over-estimates the peak of the heap as a whole,
+        // which is fine for catching regressions
+        long peak = 0;
+        for (MemoryPoolMXBean heapPool : heapPools) {
+            peak += heapPool.getPeakUsage().getUsed();
+        }
+        final long peakMb = peak >> 20;
+
+        ArrangeChecker.assertArranged(inputs, arranged);
+        final long scaledMillis = (long) (millisBudget * BUDGET_SCALE);
+        assertTrue(description + " took " + millis + " ms, over the budget of " + scaledMillis + " ms",
+                millis <= scaledMillis);
+        final long scaledHeapMb = (long) (heapBudgetMb * BUDGET_SCALE);
+        assertTrue(description + " peaked at " + peakMb + " MB of heap, over the budget of " + scaledHeapMb + " MB",
+                peakMb <= scaledHeapMb);
+    }
+}
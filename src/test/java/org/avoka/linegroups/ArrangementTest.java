@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class ArrangementTest {
+
+    @Test
+    public void testUpdatesMatchArrangingFromScratch() {
+        final Random random = new Random(6);
+        final LineDictionary dictionary = new LineDictionary();
+        final Arrangement arrangement = new Arrangement(dictionary);
+        final List<LineGroup> present = new ArrayList<>();
+        for (int step = 0; step < 300; ++step) {
+            if (!present.isEmpty() && random.nextInt(3) == 0) {
+                final LineGroup removed = present.remove(random.nextInt(present.size()));
+                assertEquals(removed, arrangement.remove(removed.getName()));
+            } else {
+                final LineGroup.Builder builder = LineGroup.builder("g" + step, dictionary);
+                final int lines = 1 + random.nextInt(30);
+                for (int i = 0; i < lines; ++i) {
+                    builder.addLine("line" + random.nextInt(60));
+                }
+                final LineGroup group = builder.build();
+                try {
+                    arrangement.add(group);
+                    present.add(group);
+                } catch (IllegalStateException e) {
+                    // identical to a present group
+                    assertFalse(arrangement.contains(group.getName()));
+                }
+            }
+            final Arrangement scratch = new Arrangement(dictionary);
+            for (LineGroup group : present) {
+                scratch.add(group);
+            }
+            assertEquals(new HashMap<>(scratch.getGroups()), new HashMap<>(arrangement.getGroups()));
+            ArrangeChecker.assertArranged(present.toArray(new LineGroup[present.size()]), arrangement.getGroups());
+        }
+    }
+
+    @Test
+    public void testAddAndRemoveMatchOracle() {
+        final Random random = new Random(16);
+        final LineDictionary dictionary = new LineDictionary();
+        final Arrangement arrangement = new Arrangement(dictionary);
+        final List<LineGroup> present = new ArrayList<>();
+        for (LineGroup group : ArrangeChecker.generate(dictionary, 30, 40, 16)) {
+            arrangement.add(group);
+            present.add(group);
+            ArrangeChecker.assertArranged(present.toArray(new LineGroup[present.size()]), arrangement.getGroups());
+        }
+        while (!present.isEmpty()) {
+            final LineGroup removed = present.remove(random.nextInt(present.size()));
+            assertEquals(removed, arrangement.remove(removed.getName()));
+            ArrangeChecker.assertArranged(present.toArray(new LineGroup[present.size()]), arrangement.getGroups());
+        }
+        assertTrue(arrangement.getGroups().isEmpty());
+    }
+
+    @Test
+    public void testRejectedGroupLeavesTheArrangementUnchanged() {
+        final LineDictionary dictionary = new LineDictionary();
+        final Arrangement arrangement = new Arrangement(dictionary);
+        arrangement.add(LineGroup.builder("a", dictionary).addLine("1").addLine("2").build());
+        arrangement.add(LineGroup.builder("b", dictionary).addLine("2").addLine("3").build());
+        final Map<String, LineGroup> before = new HashMap<>(arrangement.getGroups());
+        try {
+            arrangement.add(LineGroup.builder("c", dictionary).addLine("2").addLine("1").build());
+            fail("identical groups were accepted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(arrangement.contains("c"));
+        assertEquals(before, new HashMap<>(arrangement.getGroups()));
+        arrangement.add(LineGroup.builder("c", dictionary).addLine("1").build());
+        assertEquals(4, arrangement.getGroups().size());
+    }
+}
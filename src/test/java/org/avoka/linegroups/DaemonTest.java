@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class DaemonTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testDictionaryIsRebuiltWhenMostLinesAreReplaced() throws IOException {
+        final Path dir = tmp.newFolder("logs").toPath();
+        write(dir, "a.log", 0, 100);
+        write(dir, "b.log", 50, 100);
+        final Daemon daemon = new Daemon(dir, false, 100);
+        daemon.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            final LineDictionary first = dictionary(daemon.getGroups());
+            for (int i = 1; i <= 10; ++i) {
+                write(dir, "a.log", i * 100, 100);
+                daemon.update(Collections.singleton("a.log"));
+                final Map<String, LineGroup> groups = daemon.getGroups();
+                final LineDictionary dictionary = dictionary(groups);
+                assertTrue(dictionary.size() <= 2 * lines(groups).size());
+                assertEquals(lines(100 * i, 100), new GroupResolver(groups).getLines("a.log"));
+                assertEquals(lines(50, 100), new GroupResolver(groups).getLines("b.log"));
+            }
+            assertNotSame(first, dictionary(daemon.getGroups()));
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void testDelta() throws IOException {
+        final Path dir = tmp.newFolder("logs").toPath();
+        write(dir, "a.log", 0, 100);
+        write(dir, "b.log", 50, 100);
+        write(dir, "c.log", 50, 30);
+        final Daemon daemon = new Daemon(dir, false);
+        daemon.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            final Set<String> removed = new HashSet<>();
+            final Set<String> added = new HashSet<>();
+            final URL url = new URL("http", daemon.getAddress().getHostString(), daemon.getAddress().getPort(),
+                    "/delta/a.log/b.log");
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("- ")) {
+                        removed.add(line.substring(2));
+                    } else if (line.startsWith("+ ")) {
+                        added.add(line.substring(2));
+                    }
+                }
+            }
+            assertEquals(lines(0, 50), removed);
+            assertEquals(lines(100, 50), added);
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    private static LineDictionary dictionary(Map<String, LineGroup> groups) {
+        for (LineGroup group : groups.values()) {
+            if (group.size() > 0) {
+                return group.getDictionary();
+            }
+        }
+        throw new IllegalStateException("No lines");
+    }
+
+    private static Set<String> lines(Map<String, LineGroup> groups) {
+        final Set<String> lines = new HashSet<>();
+        for (LineGroup group : groups.values()) {
+            lines.addAll(group.getLines());
+        }
+        return lines;
+    }
+
+    private static Set<String> lines(int from, int count) {
+        final Set<String> lines = new HashSet<>();
+        for (int i = from; i < from + count; ++i) {
+            lines.add("line" + i);
+        }
+        return lines;
+    }
+
+    private static void write(Path dir, String name, int from, int count) throws IOException {
+        final List<String> lines = new ArrayList<>(lines(from, count));
+        Files.write(dir.resolve(name), lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class ExternalArrangerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSinglePassMergeEqualsArrange() throws IOException {
+        final Path[] files = writeFiles(new Random(15), 8, 200);
+        assertEquivalent(new ExternalArranger(tmp.newFolder("work").toPath(), 1 << 20), new LineDictionary(), files);
+    }
+
+    @Test
+    public void testMultiPassMergeEqualsArrange() throws IOException {
+        // records are spilled every 1024 lines and merged four spill files at a time
+        final Path work = tmp.newFolder("work").toPath();
+        final Path[] files = writeFiles(new Random(1015), 12, 1500);
+        assertEquivalent(new ExternalArranger(work, 1, 4), new LineDictionary(), files);
+        try (Stream<Path> left = Files.list(work)) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    @Test
+    public void testCanonicalDictionary() throws IOException {
+        final Path a = write("a.log", "{\"operation\":\"add\",\"x\":1,\"y\":2}", "{\"operation\":\"remove\"}");
+        final Path b = write("b.log", "{\"y\":2,\"operation\":\"add\",\"x\":1}", "{\"operation\":\"undefine\"}");
+        assertEquivalent(new ExternalArranger(tmp.newFolder("work").toPath(), 1, 2), LineDictionary.canonicalOps(), a, b);
+    }
+
+    @Test
+    public void testGeneratedGroups() throws IOException {
+        for (int seed = 0; seed < 5; ++seed) {
+            final LineGroup[] groups = ArrangeChecker.generate(new LineDictionary(), 10, 300, 1500 + seed);
+            final Path[] files = new Path[groups.length];
+            for (int i = 0; i < groups.length; ++i) {
+                files[i] = write(seed + "-" + groups[i].getName() + ".log",
+                        groups[i].getLines().toArray(new String[groups[i].size()]));
+            }
+            assertEquivalent(new ExternalArranger(tmp.newFolder().toPath(), 1, 4), new LineDictionary(), files);
+        }
+    }
+
+    @Test
+    public void testCanonicalMultiPass() throws IOException {
+        // the same ops are written with the keys in a random order, spilled every 1024 lines and merged four at a time
+        final Random random = new Random(2015);
+        final Path work = tmp.newFolder("work").toPath();
+        final LineGroup[] groups = ArrangeChecker.generate(new LineDictionary(), 10, 400, 2015);
+        final Path[] files = new Path[groups.length];
+        for (int i = 0; i < groups.length; ++i) {
+            final List<String> lines = new ArrayList<>();
+            for (String line : groups[i].getLines()) {
+                final int name = line.lastIndexOf(",\"name\"");
+                lines.add(random.nextBoolean() ? line
+                        : "{" + line.substring(name + 1, line.length() - 1) + "," + line.substring(1, name) + "}");
+            }
+            files[i] = write(groups[i].getName() + ".log", lines.toArray(new String[lines.size()]));
+        }
+        assertEquivalent(new ExternalArranger(work, 1, 4), LineDictionary.canonicalOps(), files);
+        try (Stream<Path> left = Files.list(work)) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    private void assertEquivalent(ExternalArranger arranger, LineDictionary dictionary, Path... files)
+            throws IOException {
+        final LineGroup[] inputs = OpLogReader.readAll(dictionary, files);
+        final Map<String, LineGroup> expected = Util.arrange(inputs.clone());
+        final Map<String, LineGroup> arranged = arranger.arrange(tmp.getRoot().toPath().resolve("arranged.lgr"),
+                dictionary, files).toMap();
+        ArrangeChecker.assertArranged(inputs, arranged);
+        assertEquals(expected.keySet(), arranged.keySet());
+        for (LineGroup group : expected.values()) {
+            final LineGroup external = arranged.get(group.getName());
+            assertEquals(group.getName(), group.getLines(), external.getLines());
+            assertEquals(group.getName(), group.getNestedGroupNames(), external.getNestedGroupNames());
+        }
+    }
+
+    /**
+     * Writes files made of random modules of shared lines, a line of their own and repeated lines.
+     */
+    private Path[] writeFiles(Random random, int count, int moduleLines) throws IOException {
+        final int modules = 6;
+        final Path[] files = new Path[count];
+        for (int i = 0; i < count; ++i) {
+            final List<String> lines = new ArrayList<>();
+            for (int m = 0; m < modules; ++m) {
+                if (random.nextInt(3) > 0) {
+                    for (int l = 0; l < moduleLines; ++l) {
+                        lines.add("{\"module\":" + m + ",\"line\":" + l + "}");
+                    }
+                }
+            }
+            for (int l = random.nextInt(moduleLines); l >= 0; --l) {
+                lines.add("{\"module\":" + random.nextInt(modules) + ",\"line\":" + random.nextInt(moduleLines) + "}");
+            }
+            lines.add("{\"file\":" + i + "}");
+            Collections.shuffle(lines, random);
+            files[i] = write("f" + i + ".log", lines.toArray(new String[lines.size()]));
+        }
+        return files;
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.write(tmp.getRoot().toPath().resolve(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+}
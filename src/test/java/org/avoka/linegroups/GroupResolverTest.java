@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class GroupResolverTest {
+
+    @Test
+    public void testDeltaOfArrangedGroups() {
+        final LineGroup[] inputs = ArrangeChecker.generate(new LineDictionary(), 12, 60, 18);
+        assertDeltas(inputs, Util.arrange(inputs.clone()));
+    }
+
+    @Test
+    public void testDeltaOfBudgetedGroups() {
+        // budgeted arrangements copy the lines of the dropped signatures into several groups
+        final LineGroup[] inputs = ArrangeChecker.generate(new LineDictionary(), 12, 60, 118);
+        final Map<String, LineGroup> arranged = Util.arrange(
+                ArrangeOptions.builder().minGroupSize(8).maxExtractions(3).build(), inputs.clone());
+        final BitSet seen = new BitSet();
+        boolean shared = false;
+        for (LineGroup group : arranged.values()) {
+            for (int line : group.lineIds()) {
+                shared |= seen.get(line);
+                seen.set(line);
+            }
+        }
+        assertTrue(shared);
+        assertDeltas(inputs, arranged);
+    }
+
+    @Test
+    public void testDeepNesting() {
+        final LineDictionary dictionary = new LineDictionary();
+        final Map<String, LineGroup> groups = new LinkedHashMap<>();
+        final int depth = 20000;
+        for (int i = 0; i < depth; ++i) {
+            final LineGroup.Builder builder = LineGroup.builder("g" + i, dictionary).addLine("line" + i);
+            if (i + 1 < depth) {
+                builder.nestGroup("g" + (i + 1));
+            }
+            groups.put("g" + i, builder.build());
+        }
+        final GroupResolver resolver = new GroupResolver(groups);
+        assertEquals(depth, resolver.getLineIds("g0").length);
+        assertEquals(depth - 1, resolver.getNestedClosure("g0").size());
+        final GroupDelta delta = resolver.getDelta("g1", "g0");
+        assertArrayEquals(new int[] {dictionary.getId("line0")}, delta.getAddedLineIds());
+        assertEquals(0, delta.getRemovedLineIds().length);
+    }
+
+    private static void assertDeltas(LineGroup[] inputs, Map<String, LineGroup> arranged) {
+        final GroupResolver resolver = new GroupResolver(arranged);
+        for (LineGroup from : inputs) {
+            for (LineGroup to : inputs) {
+                final GroupDelta delta = resolver.getDelta(from.getName(), to.getName());
+                final BitSet fromLines = bits(resolver.getLineIds(from.getName()));
+                final BitSet toLines = bits(resolver.getLineIds(to.getName()));
+                final BitSet added = (BitSet) toLines.clone();
+                added.andNot(fromLines);
+                final BitSet removed = (BitSet) fromLines.clone();
+                removed.andNot(toLines);
+                assertArrayEquals(added.stream().toArray(), delta.getAddedLineIds());
+                assertArrayEquals(removed.stream().toArray(), delta.getRemovedLineIds());
+                assertEquals(from == to, delta.isEmpty());
+                for (String group : delta.getAddedGroups()) {
+                    assertTopGroup(resolver, group, to.getName(), from.getName(), added, delta.getAddedGroups());
+                }
+                for (String group : delta.getRemovedGroups()) {
+                    assertTopGroup(resolver, group, from.getName(), to.getName(), removed, delta.getRemovedGroups());
+                }
+            }
+        }
+    }
+
+    /**
+     * The group is nested in the target, not in the source, has only the delta lines
+     * and isn't nested in another group of the delta.
+     */
+    private static void assertTopGroup(GroupResolver resolver, String group, String target, String source,
+            BitSet delta, Iterable<String> deltaGroups) {
+        assertTrue(resolver.getNestedClosure(target).contains(group));
+        assertFalse(group.equals(source) || resolver.getNestedClosure(source).contains(group));
+        final BitSet lines = bits(resolver.getLineIds(group));
+        lines.andNot(delta);
+        assertTrue(group, lines.isEmpty());
+        for (String other : deltaGroups) {
+            final Set<String> nested = resolver.getNestedClosure(other);
+            assertFalse(group + " is nested in " + other, nested.contains(group));
+        }
+    }
+
+    private static BitSet bits(int[] ids) {
+        final BitSet bits = new BitSet();
+        for (int id : ids) {
+            bits.set(id);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class LineSketchTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSmallGroupsAreExact() {
+        // the union fits in the sketch, so every hash of both groups is kept
+        final LineDictionary dictionary = new LineDictionary();
+        final LineSketch a = LineSketch.of(group("a", dictionary, 0, 100));
+        final LineSketch b = LineSketch.of(group("b", dictionary, 50, 100));
+        assertEquals(50.0 / 150, a.jaccard(b), 1e-9);
+        assertEquals(0.5, a.containment(b), 1e-9);
+        assertEquals(1, a.jaccard(LineSketch.of(group("c", dictionary, 0, 100))), 1e-9);
+    }
+
+    @Test
+    public void testEstimatesAreWithinTheExpectedError() {
+        final LineDictionary dictionary = new LineDictionary();
+        final int size = 4000;
+        final LineSketch a = LineSketch.of(group("a", dictionary, 0, size));
+        for (int shared = 0; shared <= size; shared += size / 10) {
+            final LineSketch b = LineSketch.of(group("b" + shared, dictionary, size - shared, size));
+            final double jaccard = (double) shared / (2 * size - shared);
+            // the standard error of a bottom-k estimate is about sqrt(J(1 - J) / k), at most 0.03 here
+            assertEquals("jaccard of " + shared, jaccard, a.jaccard(b), 0.1);
+            assertEquals("containment of " + shared, (double) shared / size, a.containment(b), 0.1);
+        }
+        final LineSketch subset = LineSketch.of(group("subset", dictionary, 1000, 1000));
+        assertTrue(subset.containment(a) > 0.9);
+        assertEquals(0.25, a.containment(subset), 0.1);
+    }
+
+    @Test
+    public void testCollectorSketchesTheReadGroups() throws IOException {
+        final Path a = write("a.log", 0, 300);
+        final Path b = write("b.log", 100, 300);
+        final SketchCollector collector = new SketchCollector();
+        final LineGroup[] groups = OpLogReader.readAll(new LineDictionary(), collector, a, b);
+        final LineSketch[] sketches = collector.getSketches(groups);
+        assertEquals("a.log", sketches[0].getName());
+        assertEquals(300, sketches[1].size());
+        assertEquals(LineSketch.of(groups[0]).jaccard(LineSketch.of(groups[1])), sketches[0].jaccard(sketches[1]), 1e-9);
+        assertEquals(0.5, sketches[0].jaccard(sketches[1]), 0.1);
+    }
+
+    static LineGroup group(String name, LineDictionary dictionary, int from, int count) {
+        final LineGroup.Builder builder = LineGroup.builder(name, dictionary);
+        for (int i = from; i < from + count; ++i) {
+            builder.addLine("line" + i);
+        }
+        return builder.build();
+    }
+
+    private Path write(String name, int from, int count) throws IOException {
+        final List<String> lines = new ArrayList<>(count);
+        for (int i = from; i < from + count; ++i) {
+            lines.add("line" + i);
+        }
+        return Files.write(tmp.getRoot().toPath().resolve(name), lines, StandardCharsets.UTF_8);
+    }
+}
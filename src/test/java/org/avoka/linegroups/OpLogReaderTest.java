@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class OpLogReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testReadAllKeepsTheTextsOfTheFirstFile() throws IOException {
+        final List<String> a = new ArrayList<>();
+        final List<String> b = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            a.add("{\"operation\":\"add\",\"address\":[{\"subsystem\":\"s" + i + "\"}],\"value\":\"" + i + "\"}");
+            b.add("{\"value\":\"" + i + "\",\"address\":[{\"subsystem\":\"s" + i + "\"}],\"operation\":\"add\"}");
+        }
+        final Path fileA = write("a.json", a);
+        final Path fileB = write("b.json", b);
+
+        final LineDictionary first = LineDictionary.canonicalOps();
+        final LineGroup[] expected = OpLogReader.readAll(first, fileA, fileB);
+        assertEquals(5000, first.size());
+        for (int i = 0; i < first.size(); ++i) {
+            assertEquals(a.get(i), first.getLine(i));
+        }
+        for (int run = 0; run < 10; ++run) {
+            final LineDictionary dictionary = LineDictionary.canonicalOps();
+            final LineGroup[] groups = OpLogReader.readAll(dictionary, fileA, fileB);
+            for (int i = 0; i < groups.length; ++i) {
+                assertArrayEquals(expected[i].getLineIds(), groups[i].getLineIds());
+            }
+            for (int i = 0; i < dictionary.size(); ++i) {
+                assertEquals(first.getLine(i), dictionary.getLine(i));
+            }
+        }
+    }
+
+    @Test
+    public void testReadAllMatchesRead() throws IOException {
+        final List<String> a = new ArrayList<>();
+        final List<String> b = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            a.add("line" + (i % 70));
+            b.add("line" + (i + 30));
+        }
+        final Path fileA = write("a.log", a);
+        final Path fileB = write("b.log", b);
+        final LineDictionary dictionary = new LineDictionary();
+        final LineGroup[] groups = OpLogReader.readAll(dictionary, fileA, fileB);
+        assertEquals("a.log", groups[0].getName());
+        assertEquals(70, groups[0].size());
+        assertEquals(100, groups[1].size());
+        assertEquals(OpLogReader.read("a.log", fileA, dictionary), groups[0]);
+        assertEquals(OpLogReader.read("b.log", fileB, dictionary), groups[1]);
+        assertEquals(130, dictionary.size());
+    }
+
+    private Path write(String name, List<String> lines) throws IOException {
+        return Files.write(tmp.getRoot().toPath().resolve(name), lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class PartitionedArrangerTest {
+
+    @Test
+    public void testMergedSignaturesEqualArrange() {
+        // the arrangers replace the elements of the array with the groups nesting their contained groups
+        final LineGroup[] groups = groups(inputs(new Random(20), 40));
+        final Map<String, LineGroup> expected = Util.arrange(groups.clone());
+        ArrangeChecker.assertArranged(groups, expected);
+        assertEquals(expected, PartitionedArranger.arrange(ArrangeOptions.builder().build(), true, groups.clone()));
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(expected, PartitionedArranger.arrange(ArrangeOptions.builder().pool(pool).build(), true,
+                    groups.clone()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMergedSignaturesEqualBudgetedArrange() {
+        final LineGroup[] groups = groups(inputs(new Random(120), 40));
+        final ArrangeOptions options = ArrangeOptions.builder().minGroupSize(3).maxExtractions(10).build();
+        assertEquals(Util.arrange(options, groups.clone()), PartitionedArranger.arrange(options, true, groups.clone()));
+    }
+
+    @Test
+    public void testPartitionsAreArrangedApart() {
+        final List<Set<String>> inputs = inputs(new Random(220), 40);
+        final LineGroup[] groups = groups(inputs);
+        final Map<String, LineGroup> arranged = PartitionedArranger.arrange(ArrangeOptions.builder().build(), false,
+                groups.clone());
+        ArrangeChecker.assertArranged(groups, arranged,
+                line -> partition(groups[0].getDictionary().getLine(line)));
+        final GroupResolver resolver = new GroupResolver(arranged);
+        for (int i = 0; i < inputs.size(); ++i) {
+            assertEquals(inputs.get(i), new HashSet<>(resolver.getLines("g" + i)));
+        }
+        for (LineGroup group : arranged.values()) {
+            final Set<String> partitions = new HashSet<>();
+            for (String line : group.getLines()) {
+                partitions.add(partition(line));
+            }
+            assertTrue(group.getName(), partitions.size() <= 1);
+            assertFalse(group.getName(), group.getName().startsWith("GROUP["));
+        }
+    }
+
+    @Test
+    public void testGeneratedGroupsMatchOracle() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int seed = 0; seed < 10; ++seed) {
+                final LineDictionary dictionary = new LineDictionary();
+                final LineGroup[] groups = ArrangeChecker.generate(dictionary, 4 + seed * 2, 20 + seed * 10, 2000 + seed);
+                final ArrangeOptions options = ArrangeOptions.builder().pool(pool).build();
+                ArrangeChecker.assertArranged(groups, PartitionedArranger.arrange(options, true, groups.clone()));
+                ArrangeChecker.assertArranged(groups, PartitionedArranger.arrange(options, false, groups.clone()),
+                        line -> partition(dictionary.getLine(line)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String partition(String line) {
+        final String[] address = CanonicalOp.address(line);
+        return address == null || address.length == 0 ? "" : address[0] + '=' + address[1];
+    }
+
+    /**
+     * Distinct random sets of ops of three subsystems, ops without an address and lines that are not ops.
+     */
+    private static List<Set<String>> inputs(Random random, int count) {
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 60; ++i) {
+            lines.add("{\"operation\":\"add\",\"address\":[{\"subsystem\":\"s" + i % 3 + "\"},{\"r\":\"" + i + "\"}]}");
+        }
+        for (int i = 0; i < 10; ++i) {
+            lines.add("{\"operation\":\"reload\",\"n\":" + i + "}");
+            lines.add("line" + i);
+        }
+        final Set<Set<String>> distinct = new HashSet<>();
+        final List<Set<String>> inputs = new ArrayList<>(count);
+        while (inputs.size() < count) {
+            final Set<String> input = new HashSet<>();
+            final int size = 1 + random.nextInt(25);
+            while (input.size() < size) {
+                input.add(lines.get(random.nextInt(lines.size())));
+            }
+            if (distinct.add(input)) {
+                inputs.add(input);
+            }
+        }
+        return inputs;
+    }
+
+    private static LineGroup[] groups(List<Set<String>> inputs) {
+        final LineDictionary dictionary = new LineDictionary();
+        final LineGroup[] groups = new LineGroup[inputs.size()];
+        for (int i = 0; i < groups.length; ++i) {
+            final LineGroup.Builder builder = LineGroup.builder("g" + i, dictionary);
+            for (String line : inputs.get(i)) {
+                builder.addLine(line);
+            }
+            groups[i] = builder.build();
+        }
+        return groups;
+    }
+}
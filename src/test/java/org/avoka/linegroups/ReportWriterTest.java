@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jboss.dmr.ModelNode;
+import org.junit.Test;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class ReportWriterTest {
+
+    private static final String[] OPS = {
+            "{\"operation\":\"add\",\"address\":[{\"subsystem\":\"logging\"}]}",
+            "{\"operation\":\"add\",\"address\":[{\"subsystem\":\"logging\"},{\"console-handler\":\"CONSOLE\"}],\"level\":\"INFO\"}",
+            "{\"operation\":\"write-attribute\",\"address\":[{\"interface\":\"public\"}],\"name\":\"inet-address\",\"value\":\"${jboss.bind.address:127.0.0.1}\"}",
+            "{\"operation\":\"add\",\"address\":[{\"socket-binding-group\":\"standard-sockets\"},{\"socket-binding\":\"http\"}],\"port\":8080,\"fixed-port\":false}",
+            "{\"operation\":\"add\",\"address\":[{\"subsystem\":\"undertow\"},{\"server\":\"default-server\"}],\"hosts\":[\"default-host\",\"other\"],\"props\":{\"a\":\"b\"}}",
+            "{\"operation\":\"add\",\"address\":[{\"path\":\"a/b\"}],\"relative-to\":\"jboss.server.base.dir\",\"undefined\":null}"
+    };
+
+    @Test
+    public void testCliMatchesBaselineListing() throws IOException {
+        final LineDictionary dictionary = new LineDictionary();
+        final LineGroup g1 = LineGroup.builder("g1", dictionary).addLine(OPS[0]).addLine(OPS[1]).addLine(OPS[2])
+                .addLine(OPS[3]).build();
+        final LineGroup g2 = LineGroup.builder("g2", dictionary).addLine(OPS[0]).addLine(OPS[1]).build();
+        final LineGroup g3 = LineGroup.builder("g3", dictionary).addLine(OPS[2]).addLine(OPS[3]).addLine(OPS[4])
+                .build();
+        final LineGroup g4 = LineGroup.builder("g4", dictionary).addLine(OPS[0]).addLine(OPS[1]).addLine(OPS[2])
+                .addLine(OPS[3]).addLine(OPS[4]).addLine(OPS[5]).build();
+        final Map<String, LineGroup> groups = Util.arrange(g1, g2, g3, g4);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ReportWriter(StandardReportFormat.CLI, ForkJoinPool.commonPool()).write(groups, out);
+        final String report = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(baselineListing(groups), report);
+        // g4 includes g1 which includes g2
+        assertTrue(report.contains("\n    g1\n      g2\n"));
+    }
+
+    /**
+     * The listing printed by the original Main, walking every path of the nesting.
+     */
+    private static String baselineListing(Map<String, LineGroup> groups) {
+        final StringBuilder buf = new StringBuilder();
+        for (LineGroup g : groups.values()) {
+            buf.append('\n').append("GROUP ").append(g.getName()).append('\n');
+            if (g.hasNestedGroups()) {
+                buf.append("  Includes:\n");
+                final String[] arr = g.getNestedGroupNames().toArray(new String[g.getNestedGroupNames().size()]);
+                Arrays.sort(arr);
+                for (String nestedGroup : arr) {
+                    appendNestedGroups(nestedGroup, groups, 4, buf);
+                }
+            }
+            if (g.size() > 0) {
+                buf.append(" Lines:\n");
+                final String[] arr = g.getLines().toArray(new String[g.size()]);
+                Arrays.sort(arr);
+                for (String line : arr) {
+                    buf.append("  ").append(Main.toCliLine(ModelNode.fromJSONString(line))).append('\n');
+                }
+            }
+        }
+        return buf.toString();
+    }
+
+    private static void appendNestedGroups(String groupName, Map<String, LineGroup> groups, int offset,
+            StringBuilder buf) {
+        for (int i = 0; i < offset; ++i) {
+            buf.append(' ');
+        }
+        buf.append(groupName).append('\n');
+        for (String nestedGroup : groups.get(groupName).getNestedGroupNames()) {
+            appendNestedGroups(nestedGroup, groups, offset + 2, buf);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class SketchMatrixTest {
+
+    @Test
+    public void testCluster() {
+        final LineDictionary dictionary = new LineDictionary();
+        final LineGroup[] groups = {
+                LineSketchTest.group("g0", dictionary, 0, 1000),
+                LineSketchTest.group("g1", dictionary, 0, 2000),
+                LineSketchTest.group("g2", dictionary, 5000, 1000),
+                LineSketchTest.group("g3", dictionary, 5100, 1000),
+                LineSketchTest.group("g4", dictionary, 8000, 500)
+        };
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final SketchMatrix matrix;
+        try {
+            matrix = SketchMatrix.of(pool, groups);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, matrix.getContainment(0, 1), 0.1);
+        assertEquals(0.5, matrix.getContainment(1, 0), 0.1);
+        assertEquals(0.9, matrix.getContainment(2, 3), 0.1);
+        assertEquals(0, matrix.getJaccard(0, 4), 0.1);
+
+        final List<int[]> batches = matrix.cluster(0.8);
+        assertEquals(3, batches.size());
+        assertArrayEquals(new int[] {0, 1}, batches.get(0));
+        assertArrayEquals(new int[] {2, 3}, batches.get(1));
+        assertArrayEquals(new int[] {4}, batches.get(2));
+
+        final List<LineGroup[]> grouped = matrix.batch(0.8, groups);
+        assertArrayEquals(new LineGroup[] {groups[2], groups[3]}, grouped.get(1));
+        // every group is a batch of its own if nothing is contained enough
+        assertEquals(5, matrix.cluster(1.01).size());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.avoka.linegroups;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Alexey Loubyansky
+ */
+public class UtilTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testArrange() {
+        final LineDictionary dictionary = new LineDictionary();
+        final LineGroup g1 = LineGroup.builder("g1", dictionary).addLine("line1").addLine("line2").addLine("line3")
+                .addLine("line4").build();
+        final LineGroup g2 = LineGroup.builder("g2", dictionary).addLine("line1").addLine("line2").build();
+        final LineGroup g3 = LineGroup.builder("g3", dictionary).addLine("line3").addLine("line4").addLine("line5")
+                .build();
+        final LineGroup g4 = LineGroup.builder("g4", dictionary).addLine("line1").addLine("line2").addLine("line3")
+                .addLine("line4").addLine("line5").addLine("line6").build();
+
+        final Map<String, LineGroup> arranged = Util.arrange(g1, g2, g3, g4);
+        assertEquals(6, arranged.size());
+        assertEquals(new HashSet<>(Arrays.asList("line1", "line2")), arranged.get("g2").getLines());
+        assertEquals(Collections.emptySet(), arranged.get("g1").getLines());
+        assertEquals(Collections.emptySet(), arranged.get("g3").getLines());
+        assertEquals(Collections.singleton("line6"), arranged.get("g4").getLines());
+
+        final Set<String> g3Nested = new HashSet<>(arranged.get("g3").getNestedGroupNames());
+        final Set<String> g1Nested = new HashSet<>(arranged.get("g1").getNestedGroupNames());
+        g1Nested.remove("g2");
+        assertEquals(1, g1Nested.size());
+        final String line34 = g1Nested.iterator().next();
+        assertEquals(new HashSet<>(Arrays.asList("line3", "line4")), arranged.get(line34).getLines());
+        assertTrue(g3Nested.remove(line34));
+        final String line5 = g3Nested.iterator().next();
+        assertEquals(Collections.singleton("line5"), arranged.get(line5).getLines());
+        assertEquals(new HashSet<>(Arrays.asList("g1", line5)), arranged.get("g4").getNestedGroupNames());
+    }
+
+    @Test
+    public void testContentNameCollision() {
+        final LineDictionary dictionary = new LineDictionary();
+        final Map<String, LineGroup> groups = new LinkedHashMap<>();
+        final LineGroup group = LineGroup.builder("x", dictionary).addLine("1").build();
+        Util.putNewGroup(groups, group);
+        Util.putNewGroup(groups, group);
+        Util.putNewGroup(groups, LineGroup.builder("x", dictionary).addLine("1").build());
+        assertSame(group, groups.get("x"));
+        try {
+            Util.putNewGroup(groups, LineGroup.builder("x", dictionary).addLine("2").build());
+            fail("a different group with the same name was accepted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            Util.putNewGroup(groups, LineGroup.builder("x", dictionary).addLine("1").nestGroup("y").build());
+            fail("a different group with the same name was accepted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testArrangeMatchesOracle() {
+        for (int seed = 0; seed < 20; ++seed) {
+            final LineGroup[] inputs = ArrangeChecker.generate(new LineDictionary(), 2 + seed, 5 + seed * 3, seed);
+            ArrangeChecker.assertArranged(inputs, Util.arrange(inputs.clone()));
+        }
+    }
+
+    @Test
+    public void testParallelArrangeWritesIdenticalFile() throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int seed = 0; seed < 5; ++seed) {
+                final LineGroup[] inputs = ArrangeChecker.generate(new LineDictionary(), 24, 2000, 100 + seed);
+                final Path sequential = tmp.newFile().toPath();
+                ArrangedFile.write(sequential, Util.arrange(inputs.clone()));
+                final Map<String, LineGroup> parallel = Util.arrangeParallel(pool, inputs.clone());
+                ArrangeChecker.assertArranged(inputs, parallel);
+                final Path parallelFile = tmp.newFile().toPath();
+                ArrangedFile.write(parallelFile, parallel);
+                assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallelFile));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBudgetedArrangeIsValid() {
+        for (int seed = 0; seed < 10; ++seed) {
+            final LineGroup[] inputs = ArrangeChecker.generate(new LineDictionary(), 12, 50, 200 + seed);
+            final Map<String, LineGroup> exact = Util.arrange(inputs.clone());
+            final ArrangeOptions options = ArrangeOptions.builder().minGroupSize(4).maxExtractions(5).build();
+            final Map<String, LineGroup> budgeted = Util.arrange(options, inputs.clone());
+            ArrangeChecker.assertValid(inputs, budgeted);
+            assertTrue(budgeted.size() <= exact.size());
+        }
+    }
+
+    @Test
+    public void testIdenticalGroupsAreRejected() {
+        final LineDictionary dictionary = new LineDictionary();
+        final LineGroup g1 = LineGroup.builder("g1", dictionary).addLine("line1").addLine("line2").build();
+        final LineGroup g2 = LineGroup.builder("g2", dictionary).addLine("line1").addLine("line2").build();
+        final LineGroup g3 = LineGroup.builder("g3", dictionary).addLine("line2").addLine("line3").build();
+        try {
+            Util.arrange(g1, g2, g3);
+            fail("identical groups were arranged");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}